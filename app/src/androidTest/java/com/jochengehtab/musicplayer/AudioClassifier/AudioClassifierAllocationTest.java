@@ -0,0 +1,84 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures what the windowed analysis really allocates per window, with the runtime's allocation counting
+ * instead of the counter the classifier keeps itself.
+ * <p>
+ * Both runs classify all their windows in a single batch, so they make the same number of ExecuTorch calls
+ * and the difference between them is what the additional windows cost. What remains per window are the few
+ * small objects the TFLite Java wrapper creates on every call. A steady tone never changes its label,
+ * so no events are created either.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AudioClassifierAllocationTest {
+    // A window of samples is 64 KB and an embedding 4 KB, a single copy of either would exceed this
+    private static final long MAX_BYTES_PER_WINDOW = 256;
+
+    private int predictions = 0;
+
+    @Test
+    public void steadyStateWindowsDoNotAllocate() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AudioClassifier classifier = new AudioClassifier(context);
+        try {
+            classifier.setClassifierBatchSize(256);
+            // Keeps the listener from splitting the runs into several batches
+            classifier.setMaxPredictionDelayMs(60_000);
+            AudioClassifier.PredictionListener listener = (time, label) -> predictions++;
+            float[] shortSignal = tone(10);
+            float[] longSignal = tone(70);
+
+            // The first run sizes all buffers
+            classifier.analyzeSamples(longSignal, listener);
+
+            long windowsBefore = classifier.getAnalyzedWindowCount();
+            long shortBytes = allocatedBytes(classifier, shortSignal, listener);
+            long shortWindows = classifier.getAnalyzedWindowCount() - windowsBefore;
+
+            windowsBefore = classifier.getAnalyzedWindowCount();
+            long longBytes = allocatedBytes(classifier, longSignal, listener);
+            long longWindows = classifier.getAnalyzedWindowCount() - windowsBefore;
+
+            assertTrue(longWindows > shortWindows);
+            assertEquals(classifier.getAnalyzedWindowCount(), predictions);
+
+            long bytesPerWindow = (longBytes - shortBytes) / (longWindows - shortWindows);
+            assertTrue(bytesPerWindow + " bytes allocated per window", bytesPerWindow < MAX_BYTES_PER_WINDOW);
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long allocatedBytes(AudioClassifier classifier, float[] samples,
+                                       AudioClassifier.PredictionListener listener) {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            classifier.analyzeSamples(samples, listener);
+            return Debug.getThreadAllocSize();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static float[] tone(int seconds) {
+        float[] samples = new float[seconds * AudioClassifier.SAMPLE_RATE];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 0.5f * (float) Math.sin(2 * Math.PI * 440 * i / AudioClassifier.SAMPLE_RATE);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,398 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes style embeddings in stages, so the codecs, the CPU and the database work at the same time.
+ * <p>
+ * Decoder threads, the callers of {@link #decode}, decode the probe snippets of their track and put them into
+ * a bounded queue. Inference workers take snippets of any track from the queue and run YAMNet on them with
+ * a pooled classifier. Both stages are sized independently: decoding mostly waits for the codec,
+ * inference keeps a core busy. The snippet buffers come from a fixed pool, so a slow stage makes the other wait
+ * instead of filling the memory. Finished tracks are handed to the {@link Listener} on a single persist thread,
+ * so storing and indexing an embedding never holds up an inference worker.
+ * <p>
+ * Every snippet is a separate YAMNet invocation, an inference worker only runs several of them on one classifier
+ * lease. Concatenating snippets into one input does not pay off: YAMNet pads the end of its input, and to keep
+ * the two frames of a snippet free of its neighbours every snippet needs a stride of four frame hops,
+ * which doubles the frames YAMNet computes.
+ * <p>
+ * A track is only decoded a little ahead of its inference, so probing still stops once the running mean
+ * has converged, see {@link ProbeScheduler}.
+ */
+public final class AnalysisPipeline {
+    private static final String TAG = "AnalysisPipeline";
+
+    // Snippets of one track that may wait for inference, enough for the minimum probes
+    private static final int MAX_SNIPPETS_AHEAD = ProbeScheduler.MIN_PROBES;
+
+    // Snippets an inference worker takes at once, they run after each other on one classifier lease
+    private static final int MAX_SNIPPETS_PER_LEASE = 4;
+
+    // An idle inference worker exits after this long, the next snippet starts a new one
+    private static final long IDLE_TIMEOUT_MS = 2000;
+
+    public interface Listener {
+        void onProgress(long trackId, int percent);
+
+        /**
+         * Called on the persist thread of the pipeline, one track after another.
+         *
+         * @param embedding The style embedding, empty if no probe of the track could be analyzed
+         */
+        void onFinished(long trackId, float[] embedding);
+    }
+
+    private final Context context;
+    private final AudioClassifierPool classifierPool;
+    private final Listener listener;
+    // Reports progress right away, results are stored on the persist thread
+    private final Listener stageListener = new Listener() {
+        @Override
+        public void onProgress(long trackId, int percent) {
+            listener.onProgress(trackId, percent);
+        }
+
+        @Override
+        public void onFinished(long trackId, float[] embedding) {
+            persistExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    listener.onFinished(trackId, embedding);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Storing track " + trackId + " failed", e);
+                } finally {
+                    persistBusyNanos.addAndGet(System.nanoTime() - start);
+                }
+            });
+        }
+    };
+    private final int inferenceWorkers;
+    private final float convergenceThreshold;
+    private final BlockingQueue<Snippet> snippets;
+    private final BlockingQueue<float[]> freeBuffers;
+    private final ExecutorService inferenceExecutor = Executors.newCachedThreadPool();
+    private final ExecutorService persistExecutor = Executors.newSingleThreadExecutor();
+    private final ThreadLocal<ProbeDecoder> decoders;
+    private final AtomicLong bufferAllocations = new AtomicLong(0);
+
+    private final Object workerLock = new Object();
+    private int activeInferenceWorkers = 0;
+
+    // Utilization of both stages since the last reset
+    private final AtomicLong decodeBusyNanos = new AtomicLong(0);
+    private final AtomicLong inferenceBusyNanos = new AtomicLong(0);
+    private final AtomicLong persistBusyNanos = new AtomicLong(0);
+    private volatile long statisticsStart = System.nanoTime();
+    private volatile int decoderThreads = 1;
+
+    /**
+     * @param inferenceWorkers Parallel YAMNet invocations, at most as many classifiers as the pool hands out
+     * @param queueCapacity    Decoded snippets that may wait for inference
+     */
+    public AnalysisPipeline(Context context, AudioClassifierPool classifierPool, int inferenceWorkers,
+                            int queueCapacity, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.classifierPool = classifierPool;
+        this.listener = listener;
+        this.inferenceWorkers = Math.max(1, inferenceWorkers);
+        this.convergenceThreshold = AudioClassifier.DEFAULT_PROBE_CONVERGENCE;
+        this.snippets = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.decoders = ThreadLocal.withInitial(() -> new ProbeDecoder(bufferAllocations));
+
+        // Every queued snippet, and every snippet a decoder or inference worker holds, needs its own buffer
+        int buffers = Math.max(1, queueCapacity) + this.inferenceWorkers * MAX_SNIPPETS_PER_LEASE + 8;
+        this.freeBuffers = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeBuffers.add(new float[AudioClassifier.WINDOW_SAMPLES]);
+        }
+    }
+
+    /**
+     * Sets how many threads call {@link #decode}, only used for the utilization report.
+     */
+    public void setDecoderThreads(int decoderThreads) {
+        this.decoderThreads = Math.max(1, decoderThreads);
+    }
+
+    /**
+     * Decodes the probes of the track on the calling thread and queues them for inference.
+     * Returns once the last snippet is queued, the embedding arrives through the listener.
+     */
+    public void decode(long trackId, Uri audioUri) throws InterruptedException {
+        TrackState state = new TrackState(trackId, stageListener, convergenceThreshold);
+        MediaExtractor extractor = new MediaExtractor();
+        ParcelFileDescriptor pfd = null;
+        MediaCodec codec = null;
+
+        try {
+            if (audioUri.getScheme() == null) {
+                audioUri = Uri.fromFile(new File(Objects.requireNonNull(audioUri.getPath())));
+            }
+            pfd = context.getContentResolver().openFileDescriptor(audioUri, "r");
+            if (pfd == null) return;
+            extractor.setDataSource(pfd.getFileDescriptor());
+
+            int trackIndex = AudioClassifier.selectAudioTrack(extractor);
+            if (trackIndex < 0) return;
+            extractor.selectTrack(trackIndex);
+
+            MediaFormat format = extractor.getTrackFormat(trackIndex);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            long[] probePoints = ProbeScheduler.probePoints(durationUs);
+            state.probeCount = probePoints.length;
+
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            codec = MediaCodec.createDecoderByType(Objects.requireNonNull(mime));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            ProbeDecoder decoder = decoders.get();
+            for (long seekTime : probePoints) {
+                // Waits until the inference caught up, so a converged track is not decoded any further
+                if (!state.awaitDecodeTurn()) break;
+
+                long decodeStart = System.nanoTime();
+                extractor.seekTo(seekTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                codec.flush();
+                decoder.decodeSnippet(extractor, codec, format, seekTime);
+                decodeBusyNanos.addAndGet(System.nanoTime() - decodeStart);
+
+                if (decoder.samples < AudioClassifier.WINDOW_SAMPLES) continue;
+
+                float[] buffer = freeBuffers.take();
+                decoder.ringBuffer.copyTo(buffer, AudioClassifier.WINDOW_SAMPLES);
+                state.snippetQueued();
+                try {
+                    snippets.put(new Snippet(state, buffer));
+                } catch (InterruptedException e) {
+                    // Never reached the queue, so no worker would consume it and the track would never finish
+                    freeBuffers.add(buffer);
+                    state.snippetDropped();
+                    throw e;
+                }
+                ensureInferenceWorker();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Decoding track " + trackId + " failed", e);
+        } finally {
+            if (codec != null) {
+                try { codec.stop(); } catch (Exception ignored) {}
+                codec.release();
+            }
+            extractor.release();
+            if (pfd != null) {
+                try { pfd.close(); } catch (IOException ignored) {}
+            }
+            state.decodeFinished();
+        }
+    }
+
+    /**
+     * Starts the statistics of {@link #getUtilizationReport} over.
+     */
+    public void resetStatistics() {
+        decodeBusyNanos.set(0);
+        inferenceBusyNanos.set(0);
+        persistBusyNanos.set(0);
+        statisticsStart = System.nanoTime();
+    }
+
+    /**
+     * @return The share of time the threads of each stage were working since the last reset
+     */
+    public String getUtilizationReport() {
+        double elapsed = Math.max(1, System.nanoTime() - statisticsStart);
+        double decode = decodeBusyNanos.get() / (elapsed * decoderThreads);
+        double inference = inferenceBusyNanos.get() / (elapsed * inferenceWorkers);
+        double persist = persistBusyNanos.get() / elapsed;
+        return String.format("Decode %d threads %.0f%% busy, inference %d workers %.0f%% busy, "
+                        + "persist 1 thread %.0f%% busy, %d snippets queued",
+                decoderThreads, decode * 100, inferenceWorkers, inference * 100, persist * 100, snippets.size());
+    }
+
+    /**
+     * Starts an inference worker if fewer than the configured number run. Starting and retiring both happen
+     * under the worker lock, so a queued snippet is always seen by a running worker.
+     */
+    private void ensureInferenceWorker() {
+        synchronized (workerLock) {
+            if (activeInferenceWorkers >= inferenceWorkers) return;
+            activeInferenceWorkers++;
+        }
+        inferenceExecutor.execute(this::runInferenceWorker);
+    }
+
+    private void runInferenceWorker() {
+        List<Snippet> taken = new ArrayList<>(MAX_SNIPPETS_PER_LEASE);
+        try {
+            while (true) {
+                Snippet first = snippets.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    synchronized (workerLock) {
+                        if (snippets.isEmpty()) {
+                            activeInferenceWorkers--;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+
+                taken.add(first);
+                snippets.drainTo(taken, MAX_SNIPPETS_PER_LEASE - 1);
+                runOnOneLease(taken);
+                taken.clear();
+            }
+        } catch (InterruptedException e) {
+            synchronized (workerLock) {
+                activeInferenceWorkers--;
+            }
+            // Snippets that were taken are lost, finish their tracks with what they have
+            for (Snippet snippet : taken) {
+                freeBuffers.add(snippet.samples);
+                snippet.state.snippetConsumed(null);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs YAMNet on each snippet after the other, the classifier is only leased once for all of them.
+     */
+    private void runOnOneLease(List<Snippet> taken) throws InterruptedException {
+        AudioClassifier classifier = classifierPool.acquire();
+        int done = 0;
+        try {
+            // The library analysis gives way to interactive analyses
+            classifier.setPreemptible(true);
+            for (; done < taken.size(); done++) {
+                Snippet snippet = taken.get(done);
+                long start = System.nanoTime();
+                float[] embedding = classifier.embedSnippet(snippet.samples);
+                inferenceBusyNanos.addAndGet(System.nanoTime() - start);
+
+                freeBuffers.add(snippet.samples);
+                snippet.state.snippetConsumed(embedding);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Inference failed", e);
+            for (; done < taken.size(); done++) {
+                Snippet snippet = taken.get(done);
+                freeBuffers.add(snippet.samples);
+                snippet.state.snippetConsumed(null);
+            }
+        } finally {
+            classifierPool.release(classifier);
+        }
+    }
+
+    private static final class Snippet {
+        final TrackState state;
+        final float[] samples;
+
+        Snippet(TrackState state, float[] samples) {
+            this.state = state;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Progress of one track through both stages, shared by its decoder and the inference workers.
+     */
+    static final class TrackState {
+        final long trackId;
+        final ProbeScheduler scheduler;
+        private final Listener listener;
+        int probeCount = 1;
+        private int queued = 0;
+        private int consumed = 0;
+        private boolean decodeFinished = false;
+        private boolean finished = false;
+
+        TrackState(long trackId, Listener listener, float convergenceThreshold) {
+            this.trackId = trackId;
+            this.listener = listener;
+            this.scheduler = new ProbeScheduler(convergenceThreshold);
+        }
+
+        /**
+         * Blocks while too many snippets of the track wait for inference.
+         *
+         * @return false if the track converged and needs no more probes
+         */
+        synchronized boolean awaitDecodeTurn() throws InterruptedException {
+            while (queued - consumed >= MAX_SNIPPETS_AHEAD && !scheduler.isConverged()) {
+                wait();
+            }
+            return !scheduler.isConverged();
+        }
+
+        synchronized void snippetQueued() {
+            queued++;
+        }
+
+        /**
+         * Takes back {@link #snippetQueued} for a snippet that could not be queued after all.
+         */
+        void snippetDropped() {
+            synchronized (this) {
+                queued--;
+                notifyAll();
+            }
+            finishIfDone();
+        }
+
+        /**
+         * @param embedding The embedding of the snippet, null if its inference failed
+         */
+        void snippetConsumed(float[] embedding) {
+            int percent;
+            synchronized (this) {
+                if (embedding != null) scheduler.add(embedding);
+                consumed++;
+                percent = Math.min(100, consumed * 100 / Math.max(1, probeCount));
+                notifyAll();
+            }
+            listener.onProgress(trackId, percent);
+            finishIfDone();
+        }
+
+        void decodeFinished() {
+            synchronized (this) {
+                decodeFinished = true;
+            }
+            finishIfDone();
+        }
+
+        /**
+         * Delivers the result once the decoder is done and every queued snippet was analyzed.
+         */
+        private void finishIfDone() {
+            float[] embedding;
+            synchronized (this) {
+                if (finished || !decodeFinished || consumed < queued) return;
+                finished = true;
+                embedding = (scheduler.getProbeCount() > 0) ? scheduler.mean() : new float[0];
+            }
+            listener.onFinished(trackId, embedding);
+        }
+    }
+}
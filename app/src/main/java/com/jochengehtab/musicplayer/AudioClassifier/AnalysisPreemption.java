@@ -0,0 +1,48 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+/**
+ * Lets an analysis the user is waiting for pause the background analysis.
+ * <p>
+ * Preemptible classifiers check in before every YAMNet invocation, so the background analysis stops
+ * at the next window boundary while an interactive analysis runs and leaves the cores to it.
+ * It continues where it stopped once the last interactive analysis ended.
+ */
+public final class AnalysisPreemption {
+    private static final Object LOCK = new Object();
+    private static int interactiveCount = 0;
+
+    private AnalysisPreemption() {
+    }
+
+    /**
+     * Pauses the background analysis until the matching {@link #endInteractive}.
+     */
+    public static void beginInteractive() {
+        synchronized (LOCK) {
+            interactiveCount++;
+        }
+    }
+
+    public static void endInteractive() {
+        synchronized (LOCK) {
+            if (interactiveCount > 0 && --interactiveCount == 0) LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks while an interactive analysis runs.
+     */
+    static void awaitBackgroundTurn() {
+        synchronized (LOCK) {
+            while (interactiveCount > 0) {
+                try {
+                    LOCK.wait();
+                } catch (InterruptedException e) {
+                    // Let the caller see the interrupt and stop
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -14,22 +14,26 @@ import org.pytorch.executorch.Module;
 import org.pytorch.executorch.Tensor;
 import org.pytorch.executorch.EValue;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AudioClassifier {
 
@@ -37,6 +41,24 @@ public class AudioClassifier {
         void onProgress(int percentage, String message);
     }
 
+    /**
+     * Receives the predictions while the analysis runs. Takes the fields instead of a {@link Prediction},
+     * so reporting a window does not allocate.
+     */
+    public interface PredictionListener {
+        void onPrediction(float time, String label);
+    }
+
+    /**
+     * WINDOWED runs YAMNet once per hop on a 1 second window.
+     * SEGMENTED runs YAMNet once per long segment and reads every frame embedding it emits,
+     * so each sample only goes through the model once.
+     */
+    public enum InferenceMode {
+        WINDOWED,
+        SEGMENTED
+    }
+
     private static final String TAG = "AudioClassifier";
 
     // Models
@@ -52,6 +74,16 @@ public class AudioClassifier {
     public static final int WINDOW_SAMPLES = (int) (SAMPLE_RATE * WINDOW_SEC);
     public static final int HOP_SAMPLES = (int) (SAMPLE_RATE * HOP_SEC);
 
+    // YAMNet emits one embedding per 0.96 s frame, every 0.48 s
+    public static final float YAMNET_HOP_SEC = 0.48f;
+    public static final int YAMNET_HOP_SAMPLES = (int) (SAMPLE_RATE * YAMNET_HOP_SEC);
+    public static final int EMBEDDING_SIZE = 1024;
+    public static final float DEFAULT_SEGMENT_SEC = 30.0f;
+    public static final int DEFAULT_CLASSIFIER_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_PREDICTION_DELAY_MS = 250;
+    public static final float DEFAULT_PROBE_CONVERGENCE = 0.002f;
+    public static final int DEFAULT_NUM_THREADS = -1;
+
     // --- Member Variables ---
     private final Context context;
     private final List<String> labels;
@@ -61,181 +93,678 @@ public class AudioClassifier {
 
     // TFLite Interpreter
     private final Interpreter yamnet;
-
-    // Buffers
-    private final float[][] outputEmbeddings;
-    private final Map<Integer, Object> yamnetOutputs;
+    private final int numThreads;
+    private final boolean useXnnpack;
+
+    // Buffers, reallocated whenever the YAMNet input gets resized
+    private float[][] outputEmbeddings;
+    private final Map<Integer, Object> yamnetOutputs = new HashMap<>();
+    private final Object[] yamnetInputs = new Object[1];
+    private FloatBuffer yamnetInputFloats;
+    private int yamnetInputSamples = 0;
+    private final float[] meanEmbedding = new float[EMBEDDING_SIZE];
+
+    // Classifier input tensors, the waveform and embeddings are written into them in place
+    private final FloatBuffer singleInput = Tensor.allocateFloatBuffer(EMBEDDING_SIZE);
+    private final EValue[] singleInputs = {EValue.from(Tensor.fromBlob(singleInput, new long[]{1, EMBEDDING_SIZE}))};
+    private FloatBuffer batchInput;
+    private EValue[] batchInputs;
+
+    // Reused across analyzeAudio calls, so steady state analysis does not allocate
+    private final SampleRingBuffer windowRingBuffer = new SampleRingBuffer(WINDOW_SAMPLES);
+    private SampleRingBuffer segmentRingBuffer;
+    private ClassificationBatch classificationBatch;
+    private final FrameTimeline frameTimeline = new FrameTimeline();
+
+    // Style embedding probes, one decoder and one thread per concurrently decoded probe
+    private static final long PROBE_THREAD_KEEP_ALIVE_SEC = 30;
+    private ThreadPoolExecutor probeExecutor;
+    private final List<ProbeDecoder> probeDecoders = new ArrayList<>();
+    private final List<ProbeStats> lastProbeStats = new ArrayList<>();
+    private int probeConcurrency = 1;
+    private float probeConvergenceThreshold = DEFAULT_PROBE_CONVERGENCE;
+    private final ProbeScheduler probeScheduler = new ProbeScheduler(DEFAULT_PROBE_CONVERGENCE);
+
+    // Index n counts the tracks that needed n probes
+    private final int[] probeCountHistogram = new int[ProbeScheduler.MAX_PROBES + 1];
+
+    // Counts the buffers this class allocates itself, they are only replaced when a size changes.
+    // It does not see allocations inside TFLite or ExecuTorch, AudioClassifierAllocationTest measures those.
+    private final AtomicLong bufferAllocations = new AtomicLong(0);
+    private long analyzedWindows = 0;
+
+    private InferenceMode inferenceMode = InferenceMode.WINDOWED;
+    private int segmentSamples = (int) (SAMPLE_RATE * DEFAULT_SEGMENT_SEC);
+    private int classifierBatchSize = DEFAULT_CLASSIFIER_BATCH_SIZE;
+    private long maxPredictionDelayNanos = DEFAULT_MAX_PREDICTION_DELAY_MS * 1_000_000L;
+
+    // Turned off if the classifier model was exported with a fixed batch size of 1
+    private boolean batchingSupported = true;
+
+    // Background analyses pause at window boundaries while an interactive analysis runs
+    private volatile boolean preemptible = false;
 
     public AudioClassifier(Context context) {
+        this(context, DEFAULT_NUM_THREADS, true);
+    }
+
+    /**
+     * @param numThreads Threads of the YAMNet interpreter, -1 lets TFLite decide
+     * @param useXnnpack Whether YAMNet runs on the XNNPACK CPU backend
+     */
+    public AudioClassifier(Context context, int numThreads, boolean useXnnpack) {
         this.context = context;
-        this.labels = loadLabels();
+        this.numThreads = numThreads;
+        this.useXnnpack = useXnnpack;
+        this.labels = ModelStore.readLines(context, LABELS_FILE);
 
         try {
-            // 1. Load ExecuTorch Model (Classifier)
-            String classifierPath = assetFilePath(CLASSIFIER_MODEL);
+            // 1. Load ExecuTorch Model (Classifier), extracted once per model version
+            String classifierPath = ModelStore.extractAsset(context, CLASSIFIER_MODEL);
             this.classifier = Module.load(classifierPath);
 
-            // 2. Load TFLite Model (YAMNet)
-            String yamnetPath = assetFilePath(YAMNET_MODEL);
-            Interpreter.Options options = new Interpreter.Options();
-            this.yamnet = new Interpreter(new File(yamnetPath), options);
+            // 2. Load TFLite Model (YAMNet), memory-mapped straight out of the APK
+            Interpreter.Options options = new Interpreter.Options()
+                    .setNumThreads(numThreads)
+                    .setUseXNNPACK(useXnnpack);
+            this.yamnet = new Interpreter(ModelStore.mapAsset(context, YAMNET_MODEL), options);
 
             // Resize Input: 16000 samples (1.0 second)
-            yamnet.resizeInput(0, new int[]{WINDOW_SAMPLES});
-            yamnet.allocateTensors();
-
-            // Reusable buffers to avoid GC thrashing
-            float[][] outputScores = new float[2][521];
-            this.outputEmbeddings = new float[2][1024];
-
-            this.yamnetOutputs = new HashMap<>();
-            this.yamnetOutputs.put(0, outputEmbeddings); // Index 0 is Embeddings
-            this.yamnetOutputs.put(1, outputScores);     // Index 1 is Scores
+            resizeYamnetInput(WINDOW_SAMPLES);
         } catch (Exception e) {
             throw new RuntimeException("Error initializing models", e);
         }
     }
 
+    /**
+     * Runs one inference of both models on silence, so the first real window
+     * does not pay for the lazy initialization of the interpreters.
+     */
+    public void warmUp() {
+        resizeYamnetInput(WINDOW_SAMPLES);
+        yamnetInputFloats.clear();
+        for (int i = 0; i < WINDOW_SAMPLES; i++) {
+            yamnetInputFloats.put(0f);
+        }
+        invokeYamnet();
+
+        singleInput.clear();
+        for (int i = 0; i < EMBEDDING_SIZE; i++) {
+            singleInput.put(0f);
+        }
+        runClassifier(singleInputs, 1, 1, new String[1], 0);
+    }
+
+    /**
+     * Restores the default analysis settings, so a pooled instance does not keep the settings of its last user.
+     */
+    void resetConfiguration() {
+        inferenceMode = InferenceMode.WINDOWED;
+        segmentSamples = (int) (SAMPLE_RATE * DEFAULT_SEGMENT_SEC);
+        classifierBatchSize = DEFAULT_CLASSIFIER_BATCH_SIZE;
+        probeConcurrency = 1;
+        probeConvergenceThreshold = DEFAULT_PROBE_CONVERGENCE;
+        preemptible = false;
+    }
+
+    /**
+     * Releases the native memory of both models. The instance must not be used afterwards.
+     */
+    public void close() {
+        if (probeExecutor != null) probeExecutor.shutdownNow();
+        yamnet.close();
+        classifier.destroy();
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isXnnpackEnabled() {
+        return useXnnpack;
+    }
+
+    /**
+     * Marks the analysis as background work, which waits for {@link AnalysisPreemption} at every window boundary.
+     */
+    public void setPreemptible(boolean preemptible) {
+        this.preemptible = preemptible;
+    }
+
+    public void setInferenceMode(InferenceMode inferenceMode) {
+        this.inferenceMode = inferenceMode;
+    }
+
+    /**
+     * Sets the segment length used by {@link InferenceMode#SEGMENTED}, e.g. 30 to 60 seconds.
+     */
+    public void setSegmentSeconds(float seconds) {
+        this.segmentSamples = Math.max(WINDOW_SAMPLES, (int) (SAMPLE_RATE * seconds));
+    }
+
+    /**
+     * Sets how many window embeddings are classified together in one ExecuTorch call.
+     */
+    public void setClassifierBatchSize(int batchSize) {
+        this.classifierBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets how long a window may wait in a partial batch before it is classified for a {@link PredictionListener}.
+     * Without a listener a batch is only classified once it is full.
+     */
+    public void setMaxPredictionDelayMs(long millis) {
+        this.maxPredictionDelayNanos = Math.max(0, millis) * 1_000_000L;
+    }
+
+    /**
+     * @return The number of buffers this class allocated so far, not counting the objects the model runtimes create
+     */
+    public long getBufferAllocationCount() {
+        return bufferAllocations.get();
+    }
+
+    /**
+     * @return The number of windows that were passed to the classifier so far
+     */
+    public long getAnalyzedWindowCount() {
+        return analyzedWindows;
+    }
+
+    /**
+     * Sets how many probes of one track {@link #getStyleEmbedding} may decode at the same time.
+     * Every concurrent probe uses its own extractor and codec on the same file,
+     * which hides slow seeking (VBR MP3, some M4A). 1 decodes the probes one after another.
+     */
+    public void setProbeConcurrency(int concurrency) {
+        this.probeConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Sets the cosine change between successive running mean embeddings below which
+     * {@link #getStyleEmbedding} stops probing a track. 0 always runs every probe.
+     */
+    public void setProbeConvergenceThreshold(float threshold) {
+        this.probeConvergenceThreshold = Math.max(0, threshold);
+    }
+
+    /**
+     * @return How many probes the last {@link #getStyleEmbedding} call needed
+     */
+    public int getLastProbeCount() {
+        return lastProbeStats.size();
+    }
+
+    /**
+     * @return A copy of the histogram, index n holds the number of tracks that needed n probes
+     */
+    public int[] getProbeCountHistogram() {
+        synchronized (probeCountHistogram) {
+            return probeCountHistogram.clone();
+        }
+    }
+
+    /**
+     * @return Decode and inference timings of every probe of the last {@link #getStyleEmbedding} call
+     */
+    public List<ProbeStats> getLastProbeStats() {
+        return new ArrayList<>(lastProbeStats);
+    }
+
     public List<Event> analyzeAudio(Uri audioUri, AnalysisProgressListener listener) throws IOException {
+        return analyzeAudio(audioUri, listener, null);
+    }
+
+    /**
+     * Decodes and classifies the audio in a single streaming pass.
+     * Decoded samples are resampled into a ring buffer that only holds one window,
+     * and every window is classified as soon as it is complete.
+     *
+     * @param predictionListener Optional, receives every prediction the moment it is made
+     */
+    public List<Event> analyzeAudio(Uri audioUri, AnalysisProgressListener listener,
+                                    PredictionListener predictionListener) throws IOException {
+        if (inferenceMode == InferenceMode.SEGMENTED) {
+            return analyzeAudioSegmented(audioUri, listener, predictionListener);
+        }
 
         // Notify decoding start
         if (listener != null) listener.onProgress(0, "Decoding audio...");
 
-        float[] waveform = decodeAudioFile(audioUri, listener);
-        if (waveform.length == 0) return Collections.emptyList();
+        ArrayList<Event> events = new ArrayList<>();
+        SampleRingBuffer ringBuffer = windowRingBuffer;
+        ringBuffer.clear();
+        ClassificationBatch batch = startClassificationBatch(events, predictionListener);
 
-        ArrayList<Prediction> predictions = new ArrayList<>();
+        decodeAudioStream(audioUri, listener, windowSink(ringBuffer, batch));
+        batch.flush();
 
-        int totalSamples = waveform.length - WINDOW_SAMPLES;
+        // Notify finishing
+        if (listener != null) listener.onProgress(100, "Finalizing...");
 
-        // Loop through audio with overlap
-        for (int startSample = 0; startSample <= waveform.length - WINDOW_SAMPLES; startSample += HOP_SAMPLES) {
+        return events;
+    }
 
-            if (listener != null) {
-                // Calculate percentage
-                int percent = (int) (((float) startSample / totalSamples) * 100);
-                listener.onProgress(percent, "Analyzing...");
-            }
+    /**
+     * Runs the windowed analysis on samples that already are 16 kHz mono, without decoding a file.
+     * Used to benchmark the classifier on a synthetic signal.
+     */
+    public List<Event> analyzeSamples(float[] samples) {
+        return analyzeSamples(samples, null);
+    }
+
+    /**
+     * Same as {@link #analyzeSamples(float[])}, but reports the predictions while the analysis runs.
+     * Package-private for tests.
+     */
+    List<Event> analyzeSamples(float[] samples, PredictionListener predictionListener) {
+        ArrayList<Event> events = new ArrayList<>();
+        SampleRingBuffer ringBuffer = windowRingBuffer;
+        ringBuffer.clear();
+        ClassificationBatch batch = startClassificationBatch(events, predictionListener);
 
-            int endSample = startSample + WINDOW_SAMPLES;
+        PolyphaseResampler.SampleSink sink = windowSink(ringBuffer, batch);
+        for (float sample : samples) {
+            sink.accept(sample);
+        }
+        batch.flush();
 
-            // Extract the chunk
-            float[] chunk = Arrays.copyOfRange(waveform, startSample, endSample);
+        return events;
+    }
 
-            // 1. Get Features (TFLite)
-            float[] embeddings = getYamnetEmbeddings(chunk);
-            if (embeddings.length == 0) continue;
+    /**
+     * Collects the samples into the window ring buffer and classifies every complete window.
+     */
+    private PolyphaseResampler.SampleSink windowSink(SampleRingBuffer ringBuffer, ClassificationBatch batch) {
+        return sample -> {
+            ringBuffer.write(sample);
+            if (!ringBuffer.isFull()) return;
+
+            float currentTime = (float) ringBuffer.getStartSample() / SAMPLE_RATE;
+
+            // 1. Get Features (TFLite), the window is copied straight into the input tensor
+            float[][] frames = runYamnet(ringBuffer, WINDOW_SAMPLES);
+            ringBuffer.discard(HOP_SAMPLES);
+            if (frames == null) return;
+            float[] embeddings = meanOf(frames);
+
+            // 2. Queue for Prediction (ExecuTorch), classified once the batch is full
+            batch.add(currentTime, embeddings);
+        };
+    }
 
-            // 2. Get Prediction (ExecuTorch)
-            String label = getPrediction(embeddings);
+    /**
+     * Same result as the windowed analysis, but YAMNet only runs once per segment.
+     * The frame embeddings of the segment are mapped back onto the 0.5 s prediction timeline,
+     * a prediction at time t uses the mean of the two frames starting closest to t,
+     * which is what a 1 second window at t would have produced.
+     */
+    private List<Event> analyzeAudioSegmented(Uri audioUri, AnalysisProgressListener listener,
+                                              PredictionListener predictionListener) throws IOException {
+        if (listener != null) listener.onProgress(0, "Decoding audio...");
 
-            float currentTime = (float) startSample / SAMPLE_RATE;
-            predictions.add(new Prediction(currentTime, label));
+        ArrayList<Event> events = new ArrayList<>();
+        if (segmentRingBuffer == null || segmentRingBuffer.capacity() != segmentSamples) {
+            segmentRingBuffer = new SampleRingBuffer(segmentSamples);
+            bufferAllocations.incrementAndGet();
         }
+        SampleRingBuffer ringBuffer = segmentRingBuffer;
+        ringBuffer.clear();
+        FrameTimeline timeline = frameTimeline;
+        timeline.reset(startClassificationBatch(events, predictionListener));
+
+        decodeAudioStream(audioUri, listener, sample -> {
+            ringBuffer.write(sample);
+            if (!ringBuffer.isFull()) return;
+
+            float[][] frames = runYamnet(ringBuffer, segmentSamples);
+            if (frames == null || frames.length < 2) {
+                // Inference failed, skip the segment but keep the frame grid intact
+                int skippedFrames = (segmentSamples - WINDOW_SAMPLES) / YAMNET_HOP_SAMPLES;
+                timeline.skip(skippedFrames);
+                ringBuffer.discard(skippedFrames * YAMNET_HOP_SAMPLES);
+                return;
+            }
 
+            // The last frame may reach into YAMNet's end padding,
+            // so it is recomputed as the first frame of the next segment
+            int usableFrames = frames.length - 1;
+            for (int i = 0; i < usableFrames; i++) {
+                timeline.consume(frames[i], Float.MAX_VALUE);
+            }
+            ringBuffer.discard(usableFrames * YAMNET_HOP_SAMPLES);
+        });
+
+        // Remaining tail of the stream
+        int remaining = ringBuffer.size();
+        if (remaining >= WINDOW_SAMPLES) {
+            float endSec = (float) (ringBuffer.getStartSample() + remaining) / SAMPLE_RATE;
+            float[][] frames = runYamnet(ringBuffer, remaining);
+            if (frames != null) {
+                for (float[] frame : frames) {
+                    timeline.consume(frame, endSec);
+                }
+            }
+        }
+        timeline.batch.flush();
 
-        // Notify finishing
         if (listener != null) listener.onProgress(100, "Finalizing...");
 
-        return consolidatePredictions(predictions);
+        return events;
     }
 
     /**
-     * Runs YAMNet (TFLite) to get audio embeddings and calculates their mean.
+     * Keeps track of the global YAMNet frame index across segments
+     * and queues the 0.5 s predictions once both of their frames are known.
      */
-    private float[] getYamnetEmbeddings(float[] chunk) {
-        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(chunk.length * 4);
+    private final class FrameTimeline {
+        private ClassificationBatch batch;
+        private final float[] previousFrame = new float[EMBEDDING_SIZE];
+        private final float[] meanFrame = new float[EMBEDDING_SIZE];
+        private boolean hasPrevious = false;
+        private long frameIndex = 0;
+        private long predictionIndex = 0;
+
+        void reset(ClassificationBatch batch) {
+            this.batch = batch;
+            hasPrevious = false;
+            frameIndex = 0;
+            predictionIndex = 0;
+        }
+
+        void consume(float[] frame, float endSec) {
+            if (hasPrevious) {
+                while (true) {
+                    float time = predictionIndex * HOP_SEC;
+                    long predictionFrame = Math.round(time / YAMNET_HOP_SEC);
+                    if (predictionFrame > frameIndex - 1 || time + WINDOW_SEC > endSec) break;
+
+                    // Predictions whose frames were skipped are dropped
+                    if (predictionFrame == frameIndex - 1) {
+                        for (int j = 0; j < EMBEDDING_SIZE; j++) {
+                            meanFrame[j] = (previousFrame[j] + frame[j]) * 0.5f;
+                        }
+                        batch.add(time, meanFrame);
+                    }
+                    predictionIndex++;
+                }
+            }
+            System.arraycopy(frame, 0, previousFrame, 0, EMBEDDING_SIZE);
+            hasPrevious = true;
+            frameIndex++;
+        }
+
+        void skip(int frames) {
+            frameIndex += frames;
+            hasPrevious = false;
+        }
+    }
+
+    /**
+     * Resizes the YAMNet input to the given amount of samples and
+     * reallocates the output buffers to the frame count YAMNet emits for it.
+     */
+    private void resizeYamnetInput(int samples) {
+        if (samples == yamnetInputSamples) return;
+
+        yamnet.resizeInput(0, new int[]{samples});
+        yamnet.allocateTensors();
+
+        int frames = yamnet.getOutputTensor(0).shape()[0];
+        int classes = yamnet.getOutputTensor(1).shape()[1];
+
+        // Reusable buffers to avoid GC thrashing
+        this.outputEmbeddings = new float[frames][EMBEDDING_SIZE];
+        float[][] outputScores = new float[frames][classes];
+        yamnetOutputs.put(0, outputEmbeddings); // Index 0 is Embeddings
+        yamnetOutputs.put(1, outputScores);     // Index 1 is Scores
+
+        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(samples * 4);
         inputBuffer.order(ByteOrder.nativeOrder());
-        inputBuffer.asFloatBuffer().put(chunk);
+        yamnetInputs[0] = inputBuffer;
+        yamnetInputFloats = inputBuffer.asFloatBuffer();
+        yamnetInputSamples = samples;
+        bufferAllocations.addAndGet(3);
+    }
 
+    /**
+     * Runs YAMNet on the oldest {@code count} samples of the ring buffer and returns one embedding row per frame.
+     * The samples are copied directly into the input tensor.
+     *
+     * @return The frame embeddings, or null if the inference failed
+     */
+    private float[][] runYamnet(SampleRingBuffer ringBuffer, int count) {
         try {
-            // Run Inference
-            yamnet.runForMultipleInputsOutputs(new Object[]{inputBuffer}, yamnetOutputs);
+            resizeYamnetInput(count);
+            ringBuffer.copyTo(yamnetInputFloats, count);
         } catch (Exception e) {
             Log.e(TAG, "YAMNet inference failed", e);
-            return new float[0];
+            return null;
         }
+        return invokeYamnet();
+    }
 
+    /**
+     * Runs YAMNet on one decoded probe snippet of {@link #WINDOW_SAMPLES} samples.
+     * Used by the {@link AnalysisPipeline}, where snippets of many tracks share the classifier.
+     * The returned array is reused by the next call, so copy it if it has to be kept.
+     *
+     * @return The mean frame embedding, or null if the inference failed
+     */
+    public float[] embedSnippet(float[] samples) {
+        try {
+            resizeYamnetInput(WINDOW_SAMPLES);
+            yamnetInputFloats.clear();
+            yamnetInputFloats.put(samples, 0, WINDOW_SAMPLES);
+        } catch (Exception e) {
+            Log.e(TAG, "YAMNet inference failed", e);
+            return null;
+        }
+        float[][] frames = invokeYamnet();
+        return (frames != null) ? meanOf(frames) : null;
+    }
+
+    private float[][] invokeYamnet() {
+        if (preemptible) AnalysisPreemption.awaitBackgroundTurn();
+        try {
+            // Run Inference, the outputs are copied into the preallocated arrays.
+            // The TFLite Java wrapper still creates a few small objects per call, e.g. to walk the output map.
+            yamnet.runForMultipleInputsOutputs(yamnetInputs, yamnetOutputs);
+        } catch (Exception e) {
+            Log.e(TAG, "YAMNet inference failed", e);
+            return null;
+        }
+        return outputEmbeddings;
+    }
+
+    /**
+     * Calculates the mean of the YAMNet frame embeddings.
+     * The returned array is reused by the next call, so copy it if it has to be kept.
+     */
+    private float[] meanOf(float[][] frames) {
         // --- Process the embeddings output ---
-        int embeddingDim = 1024;
-        float[] meanEmbeddings = new float[embeddingDim];
-        int rows = outputEmbeddings.length; // This is 2
+        int rows = frames.length; // This is 2 for a 1 second window
+        float scale = 1.0f / rows;
 
         // Sum up the embeddings
-        for (float[] outputEmbedding : outputEmbeddings) {
-            for (int j = 0; j < embeddingDim; j++) {
-                meanEmbeddings[j] += outputEmbedding[j];
+        float[] first = frames[0];
+        for (int j = 0; j < EMBEDDING_SIZE; j++) {
+            meanEmbedding[j] = first[j];
+        }
+        for (int i = 1; i < rows; i++) {
+            float[] frame = frames[i];
+            for (int j = 0; j < EMBEDDING_SIZE; j++) {
+                meanEmbedding[j] += frame[j];
             }
         }
 
-        // Calculate Mean (Divide by 2)
-        for (int i = 0; i < embeddingDim; i++) {
-            meanEmbeddings[i] /= rows;
+        // Calculate Mean
+        for (int j = 0; j < EMBEDDING_SIZE; j++) {
+            meanEmbedding[j] *= scale;
         }
 
-        return meanEmbeddings;
+        return meanEmbedding;
     }
 
     /**
-     * Runs ExecuTorch model on the embeddings.
+     * Returns the reusable batch, only reallocating it when the batch size changed.
      */
-    private String getPrediction(float[] embeddings) {
-        try {
-            // 1. Prepare Tensor [1, 1024]
-            long[] shape = {1, embeddings.length};
-            Tensor inputTensor = Tensor.fromBlob(embeddings, shape);
-
-            // 2. Wrap in EValue
-            EValue inputEValue = EValue.from(inputTensor);
-
-            // 3. Run Inference
-            // forward() returns an array of EValues
-            EValue[] outputs = classifier.forward(inputEValue);
-
-            // 4. Unwrap Output
-            // We expect the first output to be our logits/scores
-            Tensor outputTensor = outputs[0].toTensor();
-            float[] scores = outputTensor.getDataAsFloatArray();
-
-            // 5. Find Max Score (ArgMax)
-            int maxIndex = -1;
-            float maxScore = -Float.MAX_VALUE;
-            for (int i = 0; i < scores.length; i++) {
-                if (scores[i] > maxScore) {
-                    maxScore = scores[i];
-                    maxIndex = i;
+    private ClassificationBatch startClassificationBatch(List<Event> events, PredictionListener predictionListener) {
+        if (classificationBatch == null || classificationBatch.capacity != classifierBatchSize) {
+            classificationBatch = new ClassificationBatch(classifierBatchSize);
+            batchInput = Tensor.allocateFloatBuffer(classifierBatchSize * EMBEDDING_SIZE);
+            batchInputs = new EValue[]{EValue.from(Tensor.fromBlob(batchInput, new long[]{classifierBatchSize, EMBEDDING_SIZE}))};
+            bufferAllocations.addAndGet(3);
+        }
+        classificationBatch.reset(events, predictionListener);
+        return classificationBatch;
+    }
+
+    /**
+     * Collects window embeddings and classifies them together once the batch is full.
+     * The predictions are consolidated into the events in the order they were added.
+     * With a listener the batch is also classified once its oldest window waited too long,
+     * so the first predictions arrive while the track is still decoding.
+     */
+    private final class ClassificationBatch {
+        private final int capacity;
+        private final float[] embeddings;
+        private final float[] times;
+        private final String[] results;
+        private List<Event> events;
+        private PredictionListener predictionListener;
+        private int count = 0;
+        private long firstAddedNanos;
+
+        ClassificationBatch(int capacity) {
+            this.capacity = capacity;
+            this.embeddings = new float[capacity * EMBEDDING_SIZE];
+            this.times = new float[capacity];
+            this.results = new String[capacity];
+        }
+
+        void reset(List<Event> events, PredictionListener predictionListener) {
+            this.events = events;
+            this.predictionListener = predictionListener;
+            this.count = 0;
+        }
+
+        void add(float time, float[] embedding) {
+            if (count == 0) firstAddedNanos = System.nanoTime();
+            System.arraycopy(embedding, 0, embeddings, count * EMBEDDING_SIZE, EMBEDDING_SIZE);
+            times[count] = time;
+            count++;
+            analyzedWindows++;
+            if (count == capacity || isOverdue()) flush();
+        }
+
+        private boolean isOverdue() {
+            return predictionListener != null && System.nanoTime() - firstAddedNanos >= maxPredictionDelayNanos;
+        }
+
+        void flush() {
+            if (count == 0) return;
+
+            getPredictions(embeddings, count, results);
+            for (int i = 0; i < count; i++) {
+                appendPrediction(events, times[i], results[i]);
+                if (predictionListener != null) {
+                    predictionListener.onPrediction(times[i], results[i]);
                 }
             }
+            count = 0;
+        }
+    }
 
-            return (maxIndex >= 0 && maxIndex < labels.size()) ? labels.get(maxIndex) : "Unknown";
+    /**
+     * Runs the ExecuTorch model on {@code rows} embeddings at once.
+     * The embeddings are written into the preallocated [batch, 1024] input tensor,
+     * a partial batch leaves the remaining rows untouched and their scores are ignored.
+     *
+     * @param results Receives the label of every row
+     */
+    private void getPredictions(float[] embeddings, int rows, String[] results) {
+        if (rows > 1 && batchingSupported) {
+            batchInput.clear();
+            batchInput.put(embeddings, 0, rows * EMBEDDING_SIZE);
+            if (runClassifier(batchInputs, classificationBatch.capacity, rows, results, 0)) return;
+
+            Log.w(TAG, "Batched ExecuTorch inference failed, falling back to single rows");
+            batchingSupported = false;
+        }
+
+        // Model only accepts a single row, classify them one by one
+        for (int i = 0; i < rows; i++) {
+            singleInput.clear();
+            singleInput.put(embeddings, i * EMBEDDING_SIZE, EMBEDDING_SIZE);
+            if (!runClassifier(singleInputs, 1, 1, results, i)) {
+                results[i] = "Error";
+            }
+        }
+    }
+
+    /**
+     * Runs the ExecuTorch model on the given input tensor and writes the argmax label of the first
+     * {@code rows} rows into {@code results}.
+     *
+     * @return false if the inference failed
+     */
+    private boolean runClassifier(EValue[] inputs, int tensorRows, int rows, String[] results, int resultOffset) {
+        try {
+            // forward() returns a new EValue array and getDataAsFloatArray() copies the output into a new array.
+            // ExecuTorch has no API to read the output into an existing buffer, so these two remain,
+            // once per batch and not once per window.
+            EValue[] outputs = classifier.forward(inputs);
+
+            // We expect the first output to be our logits/scores, one row per embedding
+            float[] scores = outputs[0].toTensor().getDataAsFloatArray();
+            int classes = scores.length / tensorRows;
+            if (classes == 0 || classes * tensorRows != scores.length) {
+                Log.e(TAG, "Unexpected output size " + scores.length + " for " + tensorRows + " rows");
+                return false;
+            }
 
+            // Find Max Score (ArgMax) per row
+            for (int r = 0; r < rows; r++) {
+                int offset = r * classes;
+                int maxIndex = -1;
+                float maxScore = -Float.MAX_VALUE;
+                for (int i = 0; i < classes; i++) {
+                    if (scores[offset + i] > maxScore) {
+                        maxScore = scores[offset + i];
+                        maxIndex = i;
+                    }
+                }
+                results[resultOffset + r] = (maxIndex >= 0 && maxIndex < labels.size()) ? labels.get(maxIndex) : "Unknown";
+            }
+            return true;
         } catch (Exception e) {
             Log.e(TAG, "ExecuTorch inference failed", e);
-            return "Error";
+            return false;
         }
     }
 
-    private List<Event> consolidatePredictions(List<Prediction> predictions) {
-        if (predictions.isEmpty()) return Collections.emptyList();
-        ArrayList<Event> events = new ArrayList<>();
-        Prediction first = predictions.get(0);
-        Event currentEvent = new Event(first.label, first.time, first.time + HOP_SEC);
-
-        for (int i = 1; i < predictions.size(); i++) {
-            Prediction p = predictions.get(i);
-            // If label matches and times are contiguous (within a small margin), extend
-            if (p.label.equals(currentEvent.label)) {
-                currentEvent.end = p.time + HOP_SEC;
-            } else {
-                events.add(currentEvent);
-                currentEvent = new Event(p.label, p.time, p.time + HOP_SEC);
+    /**
+     * Extends the last event if the label did not change, otherwise starts a new one.
+     * This consolidates the predictions on the fly, so no prediction list has to be kept.
+     */
+    private void appendPrediction(List<Event> events, float time, String label) {
+        if (!events.isEmpty()) {
+            Event currentEvent = events.get(events.size() - 1);
+            if (currentEvent.label.equals(label)) {
+                currentEvent.end = time + HOP_SEC;
+                return;
             }
         }
-        events.add(currentEvent);
-        return events;
+        events.add(new Event(label, time, time + HOP_SEC));
     }
 
-    private float[] decodeAudioFile(Uri audioUri, AnalysisProgressListener listener) throws IOException {
+    /**
+     * Decodes the audio file and pushes the mono 16 kHz samples into the sink while decoding.
+     * Nothing besides the codec buffers is held in memory, so the length of the file does not matter.
+     */
+    private void decodeAudioStream(Uri audioUri, AnalysisProgressListener listener,
+                                   PolyphaseResampler.SampleSink sink) throws IOException {
         MediaExtractor extractor = new MediaExtractor();
         ParcelFileDescriptor pfd = null;
 
@@ -250,187 +779,100 @@ public class AudioClassifier {
             extractor.setDataSource(pfd.getFileDescriptor());
         } catch (Exception e) {
             Log.e(TAG, "Failed to set data source", e);
+            extractor.release();
             if (pfd != null) pfd.close();
-            return new float[0];
-        }
-
-        int trackIndex = -1;
-        String mime = null;
-        MediaFormat format = null;
-        for (int i = 0; i < extractor.getTrackCount(); i++) {
-            format = extractor.getTrackFormat(i);
-            mime = format.getString(MediaFormat.KEY_MIME);
-            if (Objects.requireNonNull(mime).startsWith("audio/")) {
-                trackIndex = i;
-                break;
-            }
+            return;
         }
 
+        int trackIndex = selectAudioTrack(extractor);
         if (trackIndex == -1) {
             extractor.release();
             pfd.close();
-            return new float[0];
+            return;
         }
 
+        MediaFormat format = extractor.getTrackFormat(trackIndex);
+        String mime = format.getString(MediaFormat.KEY_MIME);
         extractor.selectTrack(trackIndex);
-        MediaCodec codec = MediaCodec.createDecoderByType(mime);
-        codec.configure(format, null, null, 0);
-        codec.start();
-
-        int inputSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-        int channelCount = format.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ?
-                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : 1;
-
-        // Total Duration for progress calculation
-        long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
-
-        int estimatedSamples = (int) ((durationUs / 1000000.0) * inputSampleRate * channelCount);
-        if (estimatedSamples <= 0) estimatedSamples = 1024 * 1024;
-
-        short[] rawData = new short[estimatedSamples];
-        int sampleIndex = 0;
-
-        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-        boolean inputDone = false;
-        boolean outputDone = false;
-
-        // Progress tracking variable
-        int lastReportedPercent = -1;
-
-        while (!outputDone) {
-            if (!inputDone) {
-                int inputBufferIndex = codec.dequeueInputBuffer(5000);
-                if (inputBufferIndex >= 0) {
-                    ByteBuffer inputBuffer = codec.getInputBuffer(inputBufferIndex);
-                    assert inputBuffer != null;
-                    int sampleSize = extractor.readSampleData(inputBuffer, 0);
-                    if (sampleSize < 0) {
-                        codec.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        inputDone = true;
-                    } else {
-                        long sampleTime = extractor.getSampleTime();
-                        if (listener != null && durationUs > 0 && sampleTime > 0) {
-                            int percent = (int) ((sampleTime * 100) / durationUs);
-                            // Only update if percentage changed (avoids UI flooding)
-                            if (percent > lastReportedPercent) {
-                                listener.onProgress(percent, "Decoding audio...");
-                                lastReportedPercent = percent;
-                            }
-                        }
-
-                        codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, extractor.getSampleTime(), 0);
-                        extractor.advance();
-                    }
-                }
-            }
-
-            int outputBufferIndex = codec.dequeueOutputBuffer(info, 5000);
-            if (outputBufferIndex >= 0) {
-                ByteBuffer outputBuffer = codec.getOutputBuffer(outputBufferIndex);
-                if (outputBuffer != null) {
-                    outputBuffer.position(info.offset);
-                    outputBuffer.limit(info.offset + info.size);
-                    outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                    ShortBuffer sb = outputBuffer.asShortBuffer();
-                    int remaining = sb.remaining();
-
-                    if (sampleIndex + remaining > rawData.length) {
-                        int newSize = Math.max(rawData.length + (rawData.length / 2), sampleIndex + remaining);
-                        rawData = Arrays.copyOf(rawData, newSize);
-                    }
-
-                    sb.get(rawData, sampleIndex, remaining);
-                    sampleIndex += remaining;
-                }
-                codec.releaseOutputBuffer(outputBufferIndex, false);
-                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    outputDone = true;
-                }
-            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                MediaFormat newFormat = codec.getOutputFormat();
-                inputSampleRate = newFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-                channelCount = newFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-            }
-        }
-
-        codec.stop();
-        codec.release();
-        extractor.release();
-        pfd.close();
-
-        // Pass listener to resampling as well, as this can take time for large files
-        return convertAndResample(rawData, sampleIndex, inputSampleRate, channelCount, listener);
-    }
-
-    /**
-     * Converts short[] -> float[], mixes down stereo to mono, and resamples.
-     */
-    private float[] convertAndResample(short[] inputShorts, int length, int inputRate, int channels, AnalysisProgressListener listener) {
-        if (listener != null) listener.onProgress(0, "Resampling...");
-
-        // Mono Mixdown (if needed)
-        int monoLength = (channels == 2) ? length / 2 : length;
-        double ratio = (double) inputRate / AudioClassifier.SAMPLE_RATE;
-        int targetLength = (int) (monoLength / ratio);
-        float[] result = new float[targetLength];
-
-        int lastReportedPercent = -1;
+        MediaCodec codec = MediaCodec.createDecoderByType(Objects.requireNonNull(mime));
 
-        for (int i = 0; i < targetLength; i++) {
-
-            if (listener != null) {
-                int percent = (int) (((float) i / targetLength) * 100);
-                if (percent > lastReportedPercent) {
-                    listener.onProgress(percent, "Resampling...");
-                    lastReportedPercent = percent;
-                }
-            }
+        try {
+            codec.configure(format, null, null, 0);
+            codec.start();
 
-            double inputIndex = i * ratio;
-            int idx1 = (int) inputIndex;
-            int idx2 = idx1 + 1;
-            double frac = inputIndex - idx1;
+            int inputSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ?
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : 1;
+            PolyphaseResampler resampler = new PolyphaseResampler(inputSampleRate, SAMPLE_RATE, channelCount);
 
-            float val1, val2;
+            // Total Duration for progress calculation
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
 
-            if (channels == 2) {
-                // Read Stereo Frame 1
-                int p1 = idx1 * 2;
-                if (p1 + 1 < length) {
-                    val1 = ((inputShorts[p1] + inputShorts[p1 + 1]) / 2.0f) / 32768.0f;
-                } else {
-                    val1 = 0;
-                }
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+
+            // Progress tracking variable
+            int lastReportedPercent = -1;
+
+            while (!outputDone) {
+                if (!inputDone) {
+                    int inputBufferIndex = codec.dequeueInputBuffer(5000);
+                    if (inputBufferIndex >= 0) {
+                        ByteBuffer inputBuffer = codec.getInputBuffer(inputBufferIndex);
+                        assert inputBuffer != null;
+                        int sampleSize = extractor.readSampleData(inputBuffer, 0);
+                        if (sampleSize < 0) {
+                            codec.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            long sampleTime = extractor.getSampleTime();
+                            if (listener != null && durationUs > 0 && sampleTime > 0) {
+                                int percent = (int) ((sampleTime * 100) / durationUs);
+                                // Only update if percentage changed (avoids UI flooding)
+                                if (percent > lastReportedPercent) {
+                                    listener.onProgress(percent, "Analyzing...");
+                                    lastReportedPercent = percent;
+                                }
+                            }
 
-                // Read Stereo Frame 2 (for interpolation)
-                int p2 = idx2 * 2;
-                if (p2 + 1 < length) {
-                    val2 = ((inputShorts[p2] + inputShorts[p2 + 1]) / 2.0f) / 32768.0f;
-                } else {
-                    val2 = val1; // End of stream
+                            codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, sampleTime, 0);
+                            extractor.advance();
+                        }
+                    }
                 }
 
-            } else {
-                // Read Mono Frame 1
-                if (idx1 < length) {
-                    val1 = inputShorts[idx1] / 32768.0f;
-                } else {
-                    val1 = 0;
-                }
+                int outputBufferIndex = codec.dequeueOutputBuffer(info, 5000);
+                if (outputBufferIndex >= 0) {
+                    ByteBuffer outputBuffer = codec.getOutputBuffer(outputBufferIndex);
+                    if (outputBuffer != null) {
+                        outputBuffer.position(info.offset);
+                        outputBuffer.limit(info.offset + info.size);
+                        outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
-                // Read Mono Frame 2
-                if (idx2 < length) {
-                    val2 = inputShorts[idx2] / 32768.0f;
-                } else {
-                    val2 = val1;
+                        // Mixdown + resample straight out of the codec buffer
+                        resampler.process(outputBuffer, sink);
+                    }
+                    codec.releaseOutputBuffer(outputBufferIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        outputDone = true;
+                    }
+                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat newFormat = codec.getOutputFormat();
+                    inputSampleRate = newFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = newFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    resampler = new PolyphaseResampler(inputSampleRate, SAMPLE_RATE, channelCount);
                 }
             }
 
-            // Linear Interpolation
-            result[i] = (float) (val1 * (1.0 - frac) + val2 * frac);
+            // The end of the track is still in the filter history
+            resampler.flush(sink);
+        } finally {
+            try { codec.stop(); } catch (Exception ignored) {}
+            codec.release();
+            extractor.release();
+            pfd.close();
         }
-
-        return result;
     }
 
     /**
@@ -440,7 +882,6 @@ public class AudioClassifier {
      */
     public float[] getStyleEmbedding(Uri audioUri, AnalysisProgressListener listener) {
         MediaExtractor extractor = new MediaExtractor();
-        MediaCodec codec = null;
         ParcelFileDescriptor pfd = null;
 
         try {
@@ -461,33 +902,60 @@ public class AudioClassifier {
             extractor.selectTrack(trackIndex);
 
             MediaFormat format = extractor.getTrackFormat(trackIndex);
-            String mime = format.getString(MediaFormat.KEY_MIME);
             long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
 
-            assert mime != null;
-            codec = MediaCodec.createDecoderByType(mime);
-            codec.configure(format, null, null, 0);
-            codec.start();
+            // 3. Define Probes, ordered by how much they are expected to add
+            long[] probePoints = ProbeScheduler.probePoints(durationUs);
+            ProbeScheduler scheduler = probeScheduler;
+            scheduler.reset(probeConvergenceThreshold);
+            lastProbeStats.clear();
 
-            // 3. Define Probes
-            long[] probePoints;
-            if (durationUs < 10_000_000) {
-                probePoints = new long[]{0};
+            // 4. Probe Loop, stops early once the running mean has settled
+            if (probeConcurrency > 1 && probePoints.length > 1) {
+                runParallelProbes(pfd, trackIndex, probePoints, scheduler, listener);
             } else {
-                probePoints = new long[]{
-                        (long) (durationUs * 0.15),
-                        (long) (durationUs * 0.30),
-                        (long) (durationUs * 0.50),
-                        (long) (durationUs * 0.70),
-                        (long) (durationUs * 0.85)
-                };
+                runSequentialProbes(extractor, format, probePoints, scheduler, listener);
+            }
+
+            synchronized (probeCountHistogram) {
+                probeCountHistogram[lastProbeStats.size()]++;
             }
 
-            float[] sumEmbeddings = new float[1024];
-            int validProbes = 0;
+            if (listener != null) listener.onProgress(100, "Done");
+
+            // 5. Average
+            return scheduler.mean();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new float[0];
+        } catch (Exception e) {
+            Log.e(TAG, "Fast Scan failed", e);
+            return new float[0];
+        } finally {
+            extractor.release();
+            if (pfd != null) {
+                try { pfd.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Seeks one extractor/codec pair to the probe points after each other until the scheduler has converged.
+     */
+    private void runSequentialProbes(MediaExtractor extractor, MediaFormat format, long[] probePoints,
+                                     ProbeScheduler scheduler, AnalysisProgressListener listener) throws IOException {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        assert mime != null;
+        MediaCodec codec = MediaCodec.createDecoderByType(mime);
+
+        try {
+            codec.configure(format, null, null, 0);
+            codec.start();
 
-            // 4. Probe Loop
-            for (int i = 0; i < probePoints.length; i++) {
+            ProbeDecoder decoder = probeDecoders(1).get(0);
+
+            for (int i = 0; i < probePoints.length && !scheduler.isConverged(); i++) {
                 long seekTime = probePoints[i];
 
                 // Update Progress
@@ -499,145 +967,168 @@ public class AudioClassifier {
                 extractor.seekTo(seekTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
                 codec.flush();
 
-                float[] snippet = decodeSnippet(extractor, codec, format);
-
-                if (snippet.length >= WINDOW_SAMPLES) {
-                    float[] window = Arrays.copyOf(snippet, WINDOW_SAMPLES);
-                    float[] features = getYamnetEmbeddings(window);
-                    for (int j = 0; j < 1024; j++) {
-                        sumEmbeddings[j] += features[j];
-                    }
-                    validProbes++;
-                }
+                decoder.decodeSnippet(extractor, codec, format, seekTime);
+                consumeProbe(decoder, scheduler);
             }
+        } finally {
+            try { codec.stop(); } catch (Exception ignored) {}
+            codec.release();
+        }
+    }
 
-            if (listener != null) listener.onProgress(100, "Done");
+    /**
+     * Decodes up to {@link #probeConcurrency} probes at the same time, each with its own extractor
+     * and codec on its own duplicate of the file descriptor. YAMNet runs on this thread and consumes the snippets
+     * in the order they finish, every consumed decoder is handed the next probe point
+     * until the scheduler has converged. Probes that are already running are still used.
+     * <p>
+     * If this returns early, e.g. because it was interrupted, the probes that have not started are cancelled.
+     * Running ones finish on their duplicate, so closing the descriptor of the caller is always safe.
+     */
+    private void runParallelProbes(ParcelFileDescriptor pfd, int trackIndex, long[] probePoints,
+                                   ProbeScheduler scheduler, AnalysisProgressListener listener)
+            throws InterruptedException, IOException {
+        int concurrency = Math.min(probeConcurrency, probePoints.length);
+        List<ProbeDecoder> decoders = probeDecoders(concurrency);
+        CompletionService<ProbeDecoder> completionService = new ExecutorCompletionService<>(probeExecutor());
+        Map<Future<ProbeDecoder>, ProbeTask> running = new HashMap<>();
 
-            if (validProbes == 0) return new float[0];
+        int submitted = 0;
 
-            // 5. Average
-            float[] avgEmbedding = new float[1024];
-            for (int i = 0; i < 1024; i++) {
-                avgEmbedding[i] = sumEmbeddings[i] / validProbes;
+        try {
+            for (; submitted < concurrency; submitted++) {
+                ProbeTask task = new ProbeTask(decoders.get(submitted), pfd, trackIndex, probePoints[submitted]);
+                running.put(completionService.submit(task), task);
             }
 
-            return avgEmbedding;
+            int finished = 0;
+            while (!running.isEmpty()) {
+                Future<ProbeDecoder> future = completionService.take();
+                running.remove(future);
+                ProbeDecoder decoder = future.get();
+                finished++;
 
-        } catch (Exception e) {
-            Log.e(TAG, "Fast Scan failed", e);
-            return new float[0];
-        } finally {
-            if (codec != null) {
-                try { codec.stop(); codec.release(); } catch (Exception ignored) {}
+                // Update Progress
+                if (listener != null) {
+                    int percent = (int) (((float) finished / probePoints.length) * 100);
+                    listener.onProgress(percent, "Scanning segment " + finished);
+                }
+
+                consumeProbe(decoder, scheduler);
+
+                if (submitted < probePoints.length && !scheduler.isConverged()) {
+                    ProbeTask task = new ProbeTask(decoder, pfd, trackIndex, probePoints[submitted++]);
+                    running.put(completionService.submit(task), task);
+                }
             }
-            extractor.release();
-            if (pfd != null) {
-                try { pfd.close(); } catch (IOException ignored) {}
+        } catch (ExecutionException e) {
+            // decodeProbe catches its own errors, so this should never happen
+            Log.e(TAG, "Probe decoding failed", e);
+        } finally {
+            if (!running.isEmpty()) {
+                for (Map.Entry<Future<ProbeDecoder>, ProbeTask> entry : running.entrySet()) {
+                    entry.getKey().cancel(false);
+                    entry.getValue().drop();
+                }
+                // Decoders are still running, don't hand them to the next track
+                probeDecoders.clear();
             }
         }
     }
 
     /**
-     * Decodes a small snippet of audio (approx 1-2 seconds) from current extractor position.
+     * One probe on a duplicate of the file descriptor, which it closes when it is done.
+     * A probe that is dropped before it started closes the duplicate without decoding.
      */
-    private float[] decodeSnippet(MediaExtractor extractor, MediaCodec codec, MediaFormat format) {
-        int targetSamples = 20000; // Aim for slightly more than 16000 to be safe
-        ArrayList<Float> accumulator = new ArrayList<>();
-
-        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-        boolean outputDone = false;
-        int timeoutUs = 2000;
-        int retryCount = 0;
-
-        int inputSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-        int channelCount = format.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ? format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : 1;
+    private static final class ProbeTask implements Callable<ProbeDecoder> {
+        private final ProbeDecoder decoder;
+        private final ParcelFileDescriptor fd;
+        private final int trackIndex;
+        private final long seekTime;
+        // Whoever claims the task first closes the duplicate
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        ProbeTask(ProbeDecoder decoder, ParcelFileDescriptor pfd, int trackIndex, long seekTime) throws IOException {
+            this.decoder = decoder;
+            this.fd = pfd.dup();
+            this.trackIndex = trackIndex;
+            this.seekTime = seekTime;
+        }
 
-        while (!outputDone && accumulator.size() < targetSamples * 2 && retryCount < 50) {
-            // Feed Input
-            int inputIndex = codec.dequeueInputBuffer(timeoutUs);
-            if (inputIndex >= 0) {
-                ByteBuffer buffer = codec.getInputBuffer(inputIndex);
-                assert buffer != null;
-                int sampleSize = extractor.readSampleData(buffer, 0);
-                if (sampleSize < 0) {
-                    codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                } else {
-                    codec.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
-                    extractor.advance();
-                }
+        @Override
+        public ProbeDecoder call() {
+            if (!claimed.compareAndSet(false, true)) return decoder;
+            try {
+                return decoder.decodeProbe(fd.getFileDescriptor(), trackIndex, seekTime);
+            } finally {
+                closeQuietly(fd);
             }
+        }
 
-            // Read Output
-            int outputIndex = codec.dequeueOutputBuffer(info, timeoutUs);
-            if (outputIndex >= 0) {
-                ByteBuffer buffer = codec.getOutputBuffer(outputIndex);
-                if (buffer != null) {
-                    // Read data
-                    buffer.order(ByteOrder.LITTLE_ENDIAN);
-                    ShortBuffer sb = buffer.asShortBuffer();
-                    int remaining = sb.remaining();
-                    short[] pcm = new short[remaining];
-                    sb.get(pcm);
-
-                    // Convert & Resample immediate chunk
-                    float[] chunkFloat = convertAndResample(pcm, remaining, inputSampleRate, channelCount, null);
-                    for (float f : chunkFloat) accumulator.add(f);
-                }
-                codec.releaseOutputBuffer(outputIndex, false);
-                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    outputDone = true;
-                }
-                retryCount = 0; // Reset retry if we got data
-            } else if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                retryCount++;
-            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                MediaFormat newFormat = codec.getOutputFormat();
-                inputSampleRate = newFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-                channelCount = newFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-            }
+        void drop() {
+            if (claimed.compareAndSet(false, true)) closeQuietly(fd);
         }
 
-        // Convert List to Array
-        float[] result = new float[accumulator.size()];
-        for (int i = 0; i < accumulator.size(); i++) result[i] = accumulator.get(i);
-        return result;
+        private static void closeQuietly(ParcelFileDescriptor fd) {
+            try { fd.close(); } catch (IOException ignored) {}
+        }
     }
 
-    private int selectAudioTrack(MediaExtractor extractor) {
-        for (int i = 0; i < extractor.getTrackCount(); i++) {
-            MediaFormat format = extractor.getTrackFormat(i);
-            String mime = format.getString(MediaFormat.KEY_MIME);
-            if (mime != null && mime.startsWith("audio/")) return i;
+    /**
+     * Returns the probe threads of this classifier, exactly {@link #probeConcurrency} of them.
+     * Idle threads exit after a while, so a classifier that stops probing does not keep them around.
+     */
+    private ThreadPoolExecutor probeExecutor() {
+        int threads = probeConcurrency;
+        if (probeExecutor == null) {
+            probeExecutor = new ThreadPoolExecutor(threads, threads,
+                    PROBE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            probeExecutor.allowCoreThreadTimeOut(true);
+        } else if (threads > probeExecutor.getMaximumPoolSize()) {
+            // The core size may never exceed the max size, so the order depends on the direction
+            probeExecutor.setMaximumPoolSize(threads);
+            probeExecutor.setCorePoolSize(threads);
+        } else if (threads < probeExecutor.getMaximumPoolSize()) {
+            probeExecutor.setCorePoolSize(threads);
+            probeExecutor.setMaximumPoolSize(threads);
         }
-        return -1;
+        return probeExecutor;
     }
 
-    private List<String> loadLabels() {
-        List<String> labelList = new ArrayList<>();
-        try (InputStream is = context.getAssets().open(LABELS_FILE);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    labelList.add(line.trim());
-                }
+    /**
+     * Runs YAMNet on the snippet of the decoder, adds the embedding to the scheduler and records the probe stats.
+     */
+    private void consumeProbe(ProbeDecoder decoder, ProbeScheduler scheduler) {
+        long inferenceNanos = 0;
+
+        if (decoder.samples >= WINDOW_SAMPLES) {
+            // The snippet goes straight from the ring buffer into the YAMNet input
+            long inferenceStart = System.nanoTime();
+            float[][] frames = runYamnet(decoder.ringBuffer, WINDOW_SAMPLES);
+            if (frames != null) {
+                scheduler.add(meanOf(frames));
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to load labels", e);
+            inferenceNanos = System.nanoTime() - inferenceStart;
         }
-        return labelList;
+
+        lastProbeStats.add(new ProbeStats(decoder.positionUs, decoder.samples, decoder.decodeNanos,
+                inferenceNanos, decoder.allocations));
     }
 
-    private String assetFilePath(String assetName) throws IOException {
-        File file = new File(context.getCacheDir(), assetName);
-        try (InputStream is = context.getAssets().open(assetName);
-             FileOutputStream fos = new FileOutputStream(file)) {
-            byte[] buffer = new byte[1024];
-            int read;
-            while ((read = is.read(buffer)) != -1) {
-                fos.write(buffer, 0, read);
-            }
+    private List<ProbeDecoder> probeDecoders(int count) {
+        while (probeDecoders.size() < count) {
+            probeDecoders.add(new ProbeDecoder(bufferAllocations));
+            bufferAllocations.addAndGet(2);
+        }
+        return probeDecoders;
+    }
+
+    static int selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) return i;
         }
-        return file.getAbsolutePath();
+        return -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide pool of {@link AudioClassifier} instances.
+ * <p>
+ * A classifier is not thread safe, so every thread has to lease its own instance and return it afterward.
+ * At most {@link #getMaxSize()} instances exist at the same time, which bounds the native memory of the models.
+ * New instances are warmed up before they are handed out, idle instances are freed on {@code onTrimMemory}.
+ */
+public final class AudioClassifierPool implements ComponentCallbacks2 {
+    private static final String TAG = "AudioClassifierPool";
+
+    // The background analysis threads plus one for the interactive analysis
+    public static final int DEFAULT_MAX_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors() / 3) + 1;
+
+    private static volatile AudioClassifierPool instance;
+
+    private final Context context;
+    private final ArrayDeque<AudioClassifier> idle = new ArrayDeque<>();
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private int numThreads = AudioClassifier.DEFAULT_NUM_THREADS;
+    private boolean useXnnpack = true;
+
+    // Created instances, including the ones that are still being constructed
+    private int size = 0;
+
+    private AudioClassifierPool(Context context) {
+        this.context = context;
+    }
+
+    public static AudioClassifierPool getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AudioClassifierPool.class) {
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    AudioClassifierPool pool = new AudioClassifierPool(appContext);
+                    appContext.registerComponentCallbacks(pool);
+                    instance = pool;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Leases a classifier, creating one if the pool has not reached its max size yet.
+     * Blocks until an instance gets returned otherwise. Every lease has to be given back with {@link #release}.
+     */
+    public AudioClassifier acquire() throws InterruptedException {
+        int threads;
+        boolean xnnpack;
+        synchronized (this) {
+            while (idle.isEmpty() && size >= maxSize) {
+                wait();
+            }
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+            // Reserve the slot, the models are loaded outside the lock
+            size++;
+            threads = numThreads;
+            xnnpack = useXnnpack;
+        }
+
+        try {
+            AudioClassifier classifier = new AudioClassifier(context, threads, xnnpack);
+            classifier.warmUp();
+            return classifier;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                size--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a leased classifier. Its settings are reset to the defaults.
+     */
+    public void release(AudioClassifier classifier) {
+        if (classifier == null) return;
+        classifier.resetConfiguration();
+
+        boolean close;
+        synchronized (this) {
+            // The pool might have shrunk or been reconfigured while the instance was leased
+            close = size > maxSize
+                    || classifier.getNumThreads() != numThreads
+                    || classifier.isXnnpackEnabled() != useXnnpack;
+            if (close) {
+                size--;
+            } else {
+                // Most recently used first, so rarely used instances stay idle and get trimmed
+                idle.push(classifier);
+            }
+            notifyAll();
+        }
+        if (close) classifier.close();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets how many classifiers may exist at the same time. Surplus idle instances are freed right away.
+     */
+    public void setMaxSize(int maxSize) {
+        List<AudioClassifier> evicted = new ArrayList<>();
+        synchronized (this) {
+            this.maxSize = Math.max(1, maxSize);
+            while (size > this.maxSize && !idle.isEmpty()) {
+                evicted.add(idle.removeLast());
+                size--;
+            }
+            notifyAll();
+        }
+        for (AudioClassifier classifier : evicted) {
+            classifier.close();
+        }
+    }
+
+    /**
+     * Sets the interpreter options of new classifiers.
+     * Idle classifiers with other options are freed, leased ones once they are returned.
+     */
+    public void setInterpreterOptions(int numThreads, boolean useXnnpack) {
+        boolean changed;
+        synchronized (this) {
+            changed = this.numThreads != numThreads || this.useXnnpack != useXnnpack;
+            this.numThreads = numThreads;
+            this.useXnnpack = useXnnpack;
+        }
+        if (changed) evictIdle();
+    }
+
+    /**
+     * Frees all idle classifiers. Leased ones are not affected.
+     */
+    public void evictIdle() {
+        List<AudioClassifier> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<>(idle);
+            idle.clear();
+            size -= evicted.size();
+            notifyAll();
+        }
+        for (AudioClassifier classifier : evicted) {
+            classifier.close();
+        }
+        if (!evicted.isEmpty()) {
+            Log.d(TAG, "Evicted " + evicted.size() + " idle classifiers");
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            evictIdle();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictIdle();
+    }
+}
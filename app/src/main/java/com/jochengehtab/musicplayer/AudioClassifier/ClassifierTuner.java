@@ -0,0 +1,232 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the fastest combination of analysis threads, YAMNet interpreter threads and CPU backend on this device.
+ * <p>
+ * Every candidate leases as many classifiers from the {@link AudioClassifierPool} as it has analysis threads
+ * and analyzes the same synthetic signal on all of them in parallel. The first run only warms up the caches
+ * and the clock governor, the rate is the median of the runs after it.
+ * Candidates that would use more threads than cores are skipped. The winner is stored in the shared preferences
+ * and only measured again if the number of cores changes.
+ */
+public final class ClassifierTuner {
+    private static final String TAG = "ClassifierTuner";
+    private static final String PREFS_NAME = "ClassifierTuner";
+    private static final String KEY_CORES = "cores";
+    private static final String KEY_POOL_SIZE = "poolSize";
+    private static final String KEY_NUM_THREADS = "numThreads";
+    private static final String KEY_XNNPACK = "xnnpack";
+
+    private static final int SIGNAL_SECONDS = 8;
+    private static final int WARM_UP_RUNS = 1;
+    private static final int MEASURED_RUNS = 3;
+    private static final int[] INTERPRETER_THREADS = {1, 2, 4};
+
+    private static Config appliedConfig;
+
+    public static final class Config {
+        // Parallel analysis threads, each with its own classifier
+        public final int poolSize;
+        public final int numThreads;
+        public final boolean useXnnpack;
+
+        public Config(int poolSize, int numThreads, boolean useXnnpack) {
+            this.poolSize = poolSize;
+            this.numThreads = numThreads;
+            this.useXnnpack = useXnnpack;
+        }
+
+        @Override
+        public String toString() {
+            return poolSize + " x " + numThreads + " threads, XNNPACK " + (useXnnpack ? "on" : "off");
+        }
+    }
+
+    private ClassifierTuner() {
+    }
+
+    /**
+     * Returns the stored config, or benchmarks the device first if there is none yet.
+     * The benchmark takes a while and leases classifiers from the pool, so run it on the analysis executor
+     * before the analysis tasks.
+     */
+    public static synchronized Config loadOrTune(Context context) {
+        if (appliedConfig != null) return appliedConfig;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        SharedPreferences prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getInt(KEY_CORES, -1) == cores) {
+            return new Config(
+                    prefs.getInt(KEY_POOL_SIZE, 1),
+                    prefs.getInt(KEY_NUM_THREADS, AudioClassifier.DEFAULT_NUM_THREADS),
+                    prefs.getBoolean(KEY_XNNPACK, true)
+            );
+        }
+
+        Config config = tune(context, cores);
+        prefs.edit()
+                .putInt(KEY_CORES, cores)
+                .putInt(KEY_POOL_SIZE, config.poolSize)
+                .putInt(KEY_NUM_THREADS, config.numThreads)
+                .putBoolean(KEY_XNNPACK, config.useXnnpack)
+                .apply();
+        return config;
+    }
+
+    /**
+     * Applies the config to the shared classifier pool.
+     * The pool keeps one extra instance for the interactive analysis.
+     */
+    public static synchronized void apply(Context context, Config config) {
+        AudioClassifierPool pool = AudioClassifierPool.getInstance(context);
+        pool.setInterpreterOptions(config.numThreads, config.useXnnpack);
+        pool.setMaxSize(config.poolSize + 1);
+        appliedConfig = config;
+    }
+
+    /**
+     * Benchmarks every candidate and returns the one with the most analyzed windows per second.
+     */
+    public static Config tune(Context context, int cores) {
+        float[] signal = createSignal();
+
+        // Analysis thread counts to try, e.g. 1, 2, 4 for 8 cores
+        TreeSet<Integer> poolSizes = new TreeSet<>();
+        poolSizes.add(1);
+        poolSizes.add(Math.min(2, cores));
+        poolSizes.add(Math.max(1, cores / 4));
+        poolSizes.add(Math.max(1, cores / 2));
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSizes.last());
+        Config best = new Config(Math.max(1, cores / 3), AudioClassifier.DEFAULT_NUM_THREADS, true);
+        double bestRate = 0;
+
+        // The largest candidate has to fit into the pool, apply() sets the final size afterward
+        AudioClassifierPool pool = AudioClassifierPool.getInstance(context);
+        pool.setMaxSize(Math.max(pool.getMaxSize(), poolSizes.last() + 1));
+
+        try {
+            for (int poolSize : poolSizes) {
+                for (int numThreads : INTERPRETER_THREADS) {
+                    // Oversubscribed cores only add context switches
+                    if (poolSize * numThreads > cores) continue;
+
+                    for (boolean useXnnpack : new boolean[]{true, false}) {
+                        Config candidate = new Config(poolSize, numThreads, useXnnpack);
+                        double rate = measure(pool, executor, candidate, signal);
+                        Log.d(TAG, candidate + ": " + String.format("%.1f", rate) + " windows/s");
+
+                        if (rate > bestRate) {
+                            bestRate = rate;
+                            best = candidate;
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Log.i(TAG, "Selected " + best);
+        return best;
+    }
+
+    /**
+     * Leases the classifiers of the candidate from the pool. Switching the interpreter options makes the pool
+     * free its idle instances, so the leased ones are created with the options of the candidate.
+     *
+     * @return The median windows per second all classifiers of the candidate analyzed together, 0 if it failed
+     */
+    private static double measure(AudioClassifierPool pool, ExecutorService executor, Config config, float[] signal) {
+        List<AudioClassifier> classifiers = new ArrayList<>();
+        try {
+            pool.setInterpreterOptions(config.numThreads, config.useXnnpack);
+            for (int i = 0; i < config.poolSize; i++) {
+                classifiers.add(pool.acquire());
+            }
+
+            for (int run = 0; run < WARM_UP_RUNS; run++) {
+                runAll(executor, classifiers, signal);
+            }
+
+            double[] rates = new double[MEASURED_RUNS];
+            for (int run = 0; run < MEASURED_RUNS; run++) {
+                long start = System.nanoTime();
+                long windows = runAll(executor, classifiers, signal);
+                long elapsed = System.nanoTime() - start;
+                rates[run] = windows * 1e9 / Math.max(1, elapsed);
+            }
+            Arrays.sort(rates);
+            return rates[MEASURED_RUNS / 2];
+        } catch (ExecutionException | RuntimeException e) {
+            Log.w(TAG, "Benchmark of " + config + " failed", e);
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            for (AudioClassifier classifier : classifiers) {
+                pool.release(classifier);
+            }
+        }
+    }
+
+    /**
+     * Analyzes the signal on every classifier in parallel.
+     *
+     * @return The number of windows all classifiers analyzed together
+     */
+    private static long runAll(ExecutorService executor, List<AudioClassifier> classifiers, float[] signal)
+            throws ExecutionException, InterruptedException {
+        List<Future<Long>> results = new ArrayList<>();
+        for (AudioClassifier classifier : classifiers) {
+            results.add(executor.submit(() -> {
+                long before = classifier.getAnalyzedWindowCount();
+                classifier.analyzeSamples(signal);
+                return classifier.getAnalyzedWindowCount() - before;
+            }));
+        }
+
+        long windows = 0;
+        for (Future<Long> result : results) {
+            windows += result.get();
+        }
+        return windows;
+    }
+
+    /**
+     * Creates a 16 kHz test signal, a chord with a slow tremolo over quiet noise.
+     * Seeded, so every candidate gets the same input.
+     */
+    private static float[] createSignal() {
+        int length = AudioClassifier.SAMPLE_RATE * SIGNAL_SECONDS;
+        float[] signal = new float[length];
+        Random random = new Random(42);
+        double[] frequencies = {220.0, 277.2, 329.6, 440.0};
+
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / AudioClassifier.SAMPLE_RATE;
+            double value = 0;
+            for (double frequency : frequencies) {
+                value += Math.sin(2 * Math.PI * frequency * t);
+            }
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 0.5 * t);
+            signal[i] = (float) (0.15 * envelope * value + 0.02 * random.nextGaussian());
+        }
+        return signal;
+    }
+}
@@ -0,0 +1,202 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide access to the bundled models.
+ * <p>
+ * Uncompressed assets (the tflite model) are memory-mapped straight out of the APK and the mapping
+ * is shared by every interpreter. Models that need a real file path (the ExecuTorch .pte) are extracted
+ * once into a file named after their content hash, which is reused until the app gets updated.
+ */
+public final class ModelStore {
+    private static final String TAG = "ModelStore";
+    private static final String PREFS_NAME = "ModelStore";
+    private static final String MODEL_DIR = "models";
+
+    private static final Map<String, MappedByteBuffer> MAPPED_MODELS = new ConcurrentHashMap<>();
+    private static final Map<String, String> EXTRACTED_MODELS = new ConcurrentHashMap<>();
+    private static final Map<String, List<String>> TEXT_ASSETS = new ConcurrentHashMap<>();
+
+    private ModelStore() {
+    }
+
+    /**
+     * Memory-maps the asset directly from the APK.
+     * Falls back to mapping the extracted file if the asset was stored compressed.
+     */
+    public static synchronized MappedByteBuffer mapAsset(Context context, String assetName) throws IOException {
+        MappedByteBuffer cached = MAPPED_MODELS.get(assetName);
+        if (cached != null) return cached;
+
+        MappedByteBuffer buffer;
+        try (AssetFileDescriptor afd = context.getAssets().openFd(assetName);
+             FileInputStream inputStream = new FileInputStream(afd.getFileDescriptor())) {
+            buffer = inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    afd.getStartOffset(), afd.getDeclaredLength());
+        } catch (IOException e) {
+            // openFd only works for uncompressed assets
+            Log.w(TAG, assetName + " is compressed, mapping the extracted copy instead");
+            try (FileInputStream inputStream = new FileInputStream(extractAsset(context, assetName))) {
+                FileChannel channel = inputStream.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        MAPPED_MODELS.put(assetName, buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns the path of an extracted copy of the asset.
+     * The copy is named after the SHA-256 of its content and only rewritten if the content changed.
+     * The package update time is remembered, so unchanged installs do not even hash the asset again.
+     */
+    public static synchronized String extractAsset(Context context, String assetName) throws IOException {
+        String cachedPath = EXTRACTED_MODELS.get(assetName);
+        if (cachedPath != null && new File(cachedPath).exists()) return cachedPath;
+
+        Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String installStamp = String.valueOf(getInstallStamp(appContext));
+
+        // Stored as "<install stamp>|<path>"
+        String stored = prefs.getString(assetName, null);
+        if (stored != null) {
+            int separator = stored.indexOf('|');
+            String storedPath = stored.substring(separator + 1);
+            if (stored.substring(0, separator).equals(installStamp) && new File(storedPath).exists()) {
+                EXTRACTED_MODELS.put(assetName, storedPath);
+                return storedPath;
+            }
+        }
+
+        File modelDir = new File(appContext.getFilesDir(), MODEL_DIR);
+        if (!modelDir.exists() && !modelDir.mkdirs()) {
+            throw new IOException("Cannot create " + modelDir);
+        }
+
+        String hash = hashAsset(appContext, assetName);
+        int dot = assetName.lastIndexOf('.');
+        String baseName = (dot > 0) ? assetName.substring(0, dot) : assetName;
+        String extension = (dot > 0) ? assetName.substring(dot) : "";
+        File target = new File(modelDir, baseName + "-" + hash + extension);
+
+        if (!target.exists()) {
+            copyAsset(appContext, assetName, target);
+        }
+        deleteOldVersions(modelDir, baseName + "-", target);
+
+        String path = target.getAbsolutePath();
+        prefs.edit().putString(assetName, installStamp + "|" + path).apply();
+        EXTRACTED_MODELS.put(assetName, path);
+        return path;
+    }
+
+    /**
+     * Reads the non-empty, trimmed lines of a text asset once per process.
+     */
+    public static List<String> readLines(Context context, String assetName) {
+        List<String> cached = TEXT_ASSETS.get(assetName);
+        if (cached != null) return cached;
+
+        List<String> lines = new ArrayList<>();
+        try (InputStream is = context.getAssets().open(assetName);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + assetName, e);
+            return lines;
+        }
+
+        List<String> result = Collections.unmodifiableList(lines);
+        TEXT_ASSETS.put(assetName, result);
+        return result;
+    }
+
+    private static long getInstallStamp(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static String hashAsset(Context context, String assetName) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+
+        try (InputStream is = context.getAssets().open(assetName)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        // The first 8 bytes are plenty to tell model versions apart
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("%02x", hash[i]));
+        }
+        return sb.toString();
+    }
+
+    private static void copyAsset(Context context, String assetName, File target) throws IOException {
+        // Write to a temporary file first, so a crash never leaves a truncated model behind
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (InputStream is = context.getAssets().open(assetName);
+             FileOutputStream fos = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                fos.write(buffer, 0, read);
+            }
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot move " + temp + " to " + target);
+        }
+    }
+
+    private static void deleteOldVersions(File modelDir, String prefix, File keep) {
+        File[] files = modelDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && !file.equals(keep) && !file.delete()) {
+                Log.w(TAG, "Could not delete old model " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Band-limited resampler that mixes interleaved 16-bit PCM down to mono
+ * and converts it from the input rate to the output rate.
+ * <p>
+ * The rate change is done with a polyphase windowed-sinc FIR filter.
+ * The filter tables only depend on the two sample rates, so they are computed once
+ * and shared by all instances. The last input samples are kept between calls,
+ * which lets chunked input (e.g. codec buffers) resample without discontinuities.
+ * At the end of the stream {@link #flush} pushes the samples that are still held back.
+ */
+public class PolyphaseResampler {
+
+    public interface SampleSink {
+        void accept(float sample);
+    }
+
+    // Zero crossings of the sinc on each side of the filter center
+    private static final int ZERO_CROSSINGS = 6;
+    // Cutoff slightly below the output Nyquist frequency to leave room for the transition band
+    private static final double ROLLOFF = 0.9;
+    private static final double KAISER_BETA = 8.0;
+
+    private static final Map<Long, FilterTable> FILTER_TABLES = new ConcurrentHashMap<>();
+
+    /**
+     * Precomputed filter for one (inputRate, outputRate) pair.
+     * Phase p holds the taps for an output sample that lies p / phases input samples
+     * after an input sample, nextPhase and advance step from one output sample to the next.
+     */
+    private static final class FilterTable {
+        final int phases;
+        final int taps;
+        final float[] coefficients;
+        final int[] nextPhase;
+        final int[] advance;
+
+        FilterTable(int phases, int taps, float[] coefficients, int[] nextPhase, int[] advance) {
+            this.phases = phases;
+            this.taps = taps;
+            this.coefficients = coefficients;
+            this.nextPhase = nextPhase;
+            this.advance = advance;
+        }
+    }
+
+    private final FilterTable table;
+    private final int channels;
+    private final float scale;
+
+    // Mono input history, the first unconsumed tap starts at 'position'
+    private float[] buffer;
+    private int length;
+    private int position;
+    private int phase;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channels) {
+        long key = ((long) inputRate << 32) | outputRate;
+        this.table = FILTER_TABLES.computeIfAbsent(key, k -> createTable(inputRate, outputRate));
+        this.channels = Math.max(1, channels);
+        // Averaging the channels and converting to [-1, 1] in one multiplication
+        this.scale = 1.0f / (32768.0f * this.channels);
+        this.buffer = new float[Math.max(8192, table.taps * 2)];
+        reset();
+    }
+
+    /**
+     * Clears the filter history, e.g. after the source was seeked.
+     */
+    public void reset() {
+        // Half a filter of silence in front of the first sample, so the output is not delayed
+        length = table.taps / 2 - 1;
+        for (int i = 0; i < length; i++) {
+            buffer[i] = 0;
+        }
+        position = 0;
+        phase = 0;
+    }
+
+    /**
+     * Consumes all complete frames of {@code pcm} and pushes the resampled mono samples to {@code sink}.
+     */
+    public void process(ShortBuffer pcm, SampleSink sink) {
+        int frames = pcm.remaining() / channels;
+        ensureCapacity(length + frames);
+
+        // 1. Mixdown into the history
+        for (int f = 0; f < frames; f++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += pcm.get();
+            }
+            buffer[length++] = sum * scale;
+        }
+
+        filter(sink);
+    }
+
+    /**
+     * Same as {@link #process(ShortBuffer, SampleSink)}, but reads the 16-bit samples straight out of a
+     * byte buffer in its byte order, e.g. a codec output buffer. Unlike {@code asShortBuffer()}
+     * this does not create a view object for every codec buffer.
+     */
+    public void process(ByteBuffer pcm, SampleSink sink) {
+        int frames = pcm.remaining() / (2 * channels);
+        ensureCapacity(length + frames);
+
+        // 1. Mixdown into the history
+        int index = pcm.position();
+        for (int f = 0; f < frames; f++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += pcm.getShort(index);
+                index += 2;
+            }
+            buffer[length++] = sum * scale;
+        }
+        pcm.position(index);
+
+        filter(sink);
+    }
+
+    /**
+     * Ends the stream: pushes the output samples whose taps reach past the last input sample,
+     * as if the input was followed by silence. Afterward the resampler starts over like after {@link #reset()}.
+     */
+    public void flush(SampleSink sink) {
+        // Half a filter of silence, the mirror image of the padding in front of the first sample
+        int padding = table.taps / 2;
+        ensureCapacity(length + padding);
+        for (int i = 0; i < padding; i++) {
+            buffer[length++] = 0;
+        }
+        filter(sink);
+        reset();
+    }
+
+    private void filter(SampleSink sink) {
+        // 2. Filter every output sample whose taps are all available
+        final int taps = table.taps;
+        final float[] coefficients = table.coefficients;
+        final int[] nextPhase = table.nextPhase;
+        final int[] advance = table.advance;
+        final float[] history = buffer;
+
+        while (position + taps <= length) {
+            int offset = phase * taps;
+            float acc = 0;
+            for (int k = 0; k < taps; k++) {
+                acc += history[position + k] * coefficients[offset + k];
+            }
+            sink.accept(acc);
+
+            position += advance[phase];
+            phase = nextPhase[phase];
+        }
+
+        // 3. Only keep the samples that are still needed by the next output
+        int consumed = Math.min(position, length);
+        System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+        length -= consumed;
+        position -= consumed;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buffer.length) {
+            float[] grown = new float[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private static FilterTable createTable(int inputRate, int outputRate) {
+        int divisor = gcd(inputRate, outputRate);
+        int phases = outputRate / divisor;   // Upsampling factor L
+        int decimation = inputRate / divisor; // Downsampling factor M
+
+        // Cutoff in cycles per input sample
+        double cutoff = 0.5 * Math.min(1.0, (double) phases / decimation) * ROLLOFF;
+        double halfWidth = ZERO_CROSSINGS / (2.0 * cutoff);
+        int taps = 2 * (int) Math.ceil(halfWidth);
+        int center = taps / 2 - 1;
+
+        float[] coefficients = new float[phases * taps];
+        double besselBeta = besselI0(KAISER_BETA);
+
+        for (int p = 0; p < phases; p++) {
+            double fraction = (double) p / phases;
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                double distance = k - center - fraction;
+                double value = 2.0 * cutoff * sinc(2.0 * cutoff * distance);
+
+                double ratio = distance / halfWidth;
+                double window = (Math.abs(ratio) >= 1.0) ? 0.0
+                        : besselI0(KAISER_BETA * Math.sqrt(1.0 - ratio * ratio)) / besselBeta;
+
+                coefficients[p * taps + k] = (float) (value * window);
+                sum += value * window;
+            }
+
+            // Normalize every phase to unity gain at DC
+            for (int k = 0; k < taps; k++) {
+                coefficients[p * taps + k] /= (float) sum;
+            }
+        }
+
+        int[] nextPhase = new int[phases];
+        int[] advance = new int[phases];
+        for (int p = 0; p < phases; p++) {
+            nextPhase[p] = (p + decimation) % phases;
+            advance[p] = (p + decimation) / phases;
+        }
+
+        return new FilterTable(phases, taps, coefficients, nextPhase, advance);
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) return 1.0;
+        double px = Math.PI * x;
+        return Math.sin(px) / px;
+    }
+
+    // Zeroth order modified Bessel function of the first kind, used by the Kaiser window
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double halfX = x / 2.0;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
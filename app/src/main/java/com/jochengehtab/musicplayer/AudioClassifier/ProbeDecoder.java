@@ -0,0 +1,161 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes probe snippets into its own ring buffer.
+ * The buffers are reused for every probe, the resampler is only replaced if the format changes.
+ */
+final class ProbeDecoder {
+    private static final String TAG = "ProbeDecoder";
+
+    final SampleRingBuffer ringBuffer = new SampleRingBuffer(AudioClassifier.WINDOW_SAMPLES);
+    private final AtomicLong bufferAllocations;
+    private final PolyphaseResampler.SampleSink sink = sample -> {
+        if (!ringBuffer.isFull()) ringBuffer.write(sample);
+    };
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private PolyphaseResampler resampler;
+    private int sampleRate = -1;
+    private int channelCount = -1;
+
+    // Results of the last probe
+    long positionUs;
+    int samples;
+    long decodeNanos;
+    long allocations;
+
+    /**
+     * @param bufferAllocations Counts the buffers the decoder allocates, shared with its owner
+     */
+    ProbeDecoder(AtomicLong bufferAllocations) {
+        this.bufferAllocations = bufferAllocations;
+    }
+
+    /**
+     * Opens an own extractor and codec on the file, seeks to the probe point and decodes the snippet.
+     * Errors are logged and reported as a probe without samples.
+     */
+    ProbeDecoder decodeProbe(FileDescriptor fd, int trackIndex, long seekTime) {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(fd);
+            extractor.selectTrack(trackIndex);
+            MediaFormat format = extractor.getTrackFormat(trackIndex);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            assert mime != null;
+
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            extractor.seekTo(seekTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            decodeSnippet(extractor, codec, format, seekTime);
+        } catch (Exception e) {
+            Log.e(TAG, "Probe at " + seekTime + "us failed", e);
+            positionUs = seekTime;
+            samples = 0;
+            ringBuffer.clear();
+        } finally {
+            if (codec != null) {
+                try { codec.stop(); codec.release(); } catch (Exception ignored) {}
+            }
+            extractor.release();
+        }
+        return this;
+    }
+
+    /**
+     * Decodes a snippet of audio from the current extractor position into the ring buffer.
+     * The codec output is resampled in place and decoding stops as soon as one window is complete.
+     */
+    void decodeSnippet(MediaExtractor extractor, MediaCodec codec, MediaFormat format, long seekTime) {
+        long decodeStart = System.nanoTime();
+        allocations = 0;
+        ringBuffer.clear();
+
+        boolean outputDone = false;
+        int timeoutUs = 2000;
+        int retryCount = 0;
+
+        int inputSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int inputChannels = format.containsKey(MediaFormat.KEY_CHANNEL_COUNT) ? format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : 1;
+
+        // One resampler for the whole snippet, so the codec buffers are joined without discontinuities
+        PolyphaseResampler snippetResampler = resampler(inputSampleRate, inputChannels);
+
+        while (!outputDone && !ringBuffer.isFull() && retryCount < 50) {
+            // Feed Input
+            int inputIndex = codec.dequeueInputBuffer(timeoutUs);
+            if (inputIndex >= 0) {
+                ByteBuffer buffer = codec.getInputBuffer(inputIndex);
+                assert buffer != null;
+                int sampleSize = extractor.readSampleData(buffer, 0);
+                if (sampleSize < 0) {
+                    codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                } else {
+                    codec.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+                    extractor.advance();
+                }
+            }
+
+            // Read Output
+            int outputIndex = codec.dequeueOutputBuffer(info, timeoutUs);
+            if (outputIndex >= 0) {
+                ByteBuffer buffer = codec.getOutputBuffer(outputIndex);
+                if (buffer != null) {
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                    // Resample directly out of the codec buffer
+                    snippetResampler.process(buffer, sink);
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    // The track ended inside the snippet
+                    snippetResampler.flush(sink);
+                    outputDone = true;
+                }
+                retryCount = 0; // Reset retry if we got data
+            } else if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                retryCount++;
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat newFormat = codec.getOutputFormat();
+                inputSampleRate = newFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                inputChannels = newFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                snippetResampler = resampler(inputSampleRate, inputChannels);
+            }
+        }
+
+        positionUs = seekTime;
+        samples = ringBuffer.size();
+        decodeNanos = System.nanoTime() - decodeStart;
+    }
+
+    /**
+     * Returns the resampler with a cleared history.
+     * A new one is only created if the sample rate or channel count differs from the last probe.
+     */
+    private PolyphaseResampler resampler(int inputSampleRate, int inputChannels) {
+        if (resampler == null || sampleRate != inputSampleRate || channelCount != inputChannels) {
+            resampler = new PolyphaseResampler(inputSampleRate, AudioClassifier.SAMPLE_RATE, inputChannels);
+            sampleRate = inputSampleRate;
+            channelCount = inputChannels;
+            allocations++;
+            bufferAllocations.incrementAndGet();
+        } else {
+            resampler.reset();
+        }
+        return resampler;
+    }
+}
@@ -0,0 +1,104 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+/**
+ * Decides where a track is probed for its style embedding and when probing can stop.
+ * <p>
+ * The probes are ordered so that every new probe covers the part of the track that is the furthest
+ * away from the ones before it: the middle first, then both ends, then the gaps in between.
+ * After every probe the running mean embedding is compared to the previous one,
+ * once the cosine change drops below the threshold more probes would not change the result.
+ */
+public class ProbeScheduler {
+    // Relative probe positions, ordered by the amount of new information they are expected to add
+    private static final double[] PROBE_ORDER = {0.50, 0.15, 0.85, 0.30, 0.70};
+    private static final long SHORT_TRACK_US = 10_000_000;
+    public static final int MIN_PROBES = 2;
+    public static final int MAX_PROBES = PROBE_ORDER.length;
+
+    private final float[] sum = new float[AudioClassifier.EMBEDDING_SIZE];
+    private final float[] previousSum = new float[AudioClassifier.EMBEDDING_SIZE];
+    private float convergenceThreshold;
+    private int probeCount = 0;
+    private boolean converged = false;
+
+    public ProbeScheduler(float convergenceThreshold) {
+        this.convergenceThreshold = convergenceThreshold;
+    }
+
+    /**
+     * @return The probe points in microseconds, in the order they should be decoded
+     */
+    public static long[] probePoints(long durationUs) {
+        if (durationUs < SHORT_TRACK_US) {
+            return new long[]{0};
+        }
+        long[] points = new long[PROBE_ORDER.length];
+        for (int i = 0; i < PROBE_ORDER.length; i++) {
+            points[i] = (long) (durationUs * PROBE_ORDER[i]);
+        }
+        return points;
+    }
+
+    /**
+     * Starts a new track.
+     *
+     * @param convergenceThreshold Cosine change below which probing stops, 0 runs every probe
+     */
+    public void reset(float convergenceThreshold) {
+        this.convergenceThreshold = convergenceThreshold;
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] = 0;
+        }
+        probeCount = 0;
+        converged = false;
+    }
+
+    /**
+     * Adds the embedding of a probe to the running mean and checks whether the mean has settled.
+     */
+    public void add(float[] embedding) {
+        System.arraycopy(sum, 0, previousSum, 0, sum.length);
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += embedding[i];
+        }
+        probeCount++;
+
+        if (probeCount >= MIN_PROBES && convergenceThreshold > 0) {
+            // The means only differ from the sums by a scale, which does not change the cosine
+            converged = 1.0 - cosine(previousSum, sum) < convergenceThreshold;
+        }
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * @return A new array holding the mean of all added embeddings, or an empty array if none were added
+     */
+    public float[] mean() {
+        if (probeCount == 0) return new float[0];
+        float[] mean = new float[sum.length];
+        for (int i = 0; i < sum.length; i++) {
+            mean[i] = sum[i] / probeCount;
+        }
+        return mean;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0 || normB == 0) return 0;
+        return dot / Math.sqrt(normA * normB);
+    }
+}
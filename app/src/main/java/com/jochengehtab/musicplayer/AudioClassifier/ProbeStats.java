@@ -0,0 +1,32 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import androidx.annotation.NonNull;
+
+// Timing and allocation figures of a single style embedding probe.
+public class ProbeStats {
+    public final long positionUs;
+    public final int samples;
+    public final long decodeNanos;
+    public final long inferenceNanos;
+    public final long bufferAllocations;
+
+    public ProbeStats(long positionUs, int samples, long decodeNanos, long inferenceNanos, long bufferAllocations) {
+        this.positionUs = positionUs;
+        this.samples = samples;
+        this.decodeNanos = decodeNanos;
+        this.inferenceNanos = inferenceNanos;
+        this.bufferAllocations = bufferAllocations;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ProbeStats{" +
+                "positionUs=" + positionUs +
+                ", samples=" + samples +
+                ", decodeMs=" + decodeNanos / 1_000_000 +
+                ", inferenceMs=" + inferenceNanos / 1_000_000 +
+                ", bufferAllocations=" + bufferAllocations +
+                '}';
+    }
+}
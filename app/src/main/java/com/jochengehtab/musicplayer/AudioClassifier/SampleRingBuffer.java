@@ -0,0 +1,94 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Fixed-size ring buffer for mono 16 kHz samples.
+ * Only the newest {@code capacity} samples are kept, so the memory used while
+ * analyzing a track does not depend on how long the track is.
+ */
+public class SampleRingBuffer {
+    private final float[] data;
+    private int head = 0;
+    private int size = 0;
+
+    // Absolute index (in the whole stream) of the oldest sample that is still buffered
+    private long startSample = 0;
+
+    public SampleRingBuffer(int capacity) {
+        this.data = new float[capacity];
+    }
+
+    public void write(float sample) {
+        if (size == data.length) {
+            throw new IllegalStateException("Ring buffer is full, discard samples first");
+        }
+        int tail = head + size;
+        if (tail >= data.length) tail -= data.length;
+        data[tail] = sample;
+        size++;
+    }
+
+    /**
+     * Copies the oldest {@code count} samples into {@code target} without removing them.
+     */
+    public void copyTo(float[] target, int count) {
+        if (count > size) {
+            throw new IllegalArgumentException("Only " + size + " samples buffered, requested " + count);
+        }
+        int firstPart = Math.min(count, data.length - head);
+        System.arraycopy(data, head, target, 0, firstPart);
+        if (firstPart < count) {
+            System.arraycopy(data, 0, target, firstPart, count - firstPart);
+        }
+    }
+
+    /**
+     * Copies the oldest {@code count} samples into {@code target}, starting at its beginning.
+     * Used to write a window directly into a direct input buffer of a model.
+     */
+    public void copyTo(FloatBuffer target, int count) {
+        if (count > size) {
+            throw new IllegalArgumentException("Only " + size + " samples buffered, requested " + count);
+        }
+        int firstPart = Math.min(count, data.length - head);
+        target.clear();
+        target.put(data, head, firstPart);
+        if (firstPart < count) {
+            target.put(data, 0, count - firstPart);
+        }
+    }
+
+    /**
+     * Drops the oldest {@code count} samples, e.g. to advance by one hop.
+     */
+    public void discard(int count) {
+        count = Math.min(count, size);
+        head += count;
+        if (head >= data.length) head -= data.length;
+        size -= count;
+        startSample += count;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        startSample = 0;
+    }
+
+    public boolean isFull() {
+        return size == data.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public long getStartSample() {
+        return startSample;
+    }
+}
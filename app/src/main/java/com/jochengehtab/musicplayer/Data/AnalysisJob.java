@@ -0,0 +1,42 @@
+package com.jochengehtab.musicplayer.Data;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A track waiting for its style analysis. The track id is the key, so a track can only be queued once.
+ * Finished jobs are deleted, the embedding is the result. Deleting the track cancels the job.
+ */
+@Entity(tableName = "analysis_jobs",
+        foreignKeys = @ForeignKey(
+                entity = Track.class,
+                parentColumns = "id",
+                childColumns = "trackId",
+                onDelete = ForeignKey.CASCADE
+        ),
+        indices = {@Index(value = {"state", "priority"})})
+public class AnalysisJob {
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_RUNNING = 1;
+    // The retry budget is used up, the track is not tried again
+    public static final int STATE_FAILED = 2;
+
+    @PrimaryKey
+    public long trackId;
+
+    public int state;
+    public int attempts;
+    // Higher runs first
+    public int priority;
+    public String lastError;
+    // Wall clock time in ms before which a failed job is not retried
+    public long notBefore;
+
+    public AnalysisJob(long trackId, int priority) {
+        this.trackId = trackId;
+        this.priority = priority;
+        this.state = STATE_PENDING;
+    }
+}
@@ -0,0 +1,94 @@
+package com.jochengehtab.musicplayer.Data;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface AnalysisJobDao {
+
+    /**
+     * Queues every track without an embedding. Tracks that already have a job keep it,
+     * so calling this again never queues a track twice.
+     */
+    @Query("INSERT OR IGNORE INTO analysis_jobs (trackId, state, attempts, priority, notBefore) " +
+            "SELECT id, " + AnalysisJob.STATE_PENDING + ", 0, 0, 0 FROM tracks " +
+            "WHERE id NOT IN (SELECT trackId FROM track_features WHERE embedding IS NOT NULL)")
+    void enqueueUnanalyzedTracks();
+
+    /**
+     * Puts the jobs that were running when the process died back into the queue.
+     */
+    @Query("UPDATE analysis_jobs SET state = " + AnalysisJob.STATE_PENDING +
+            " WHERE state = " + AnalysisJob.STATE_RUNNING)
+    int resetRunningJobs();
+
+    /**
+     * Returns the tracks of the pending jobs that may run now, highest priority first.
+     */
+    @Query("SELECT tracks.* FROM analysis_jobs JOIN tracks ON tracks.id = analysis_jobs.trackId " +
+            "WHERE analysis_jobs.state = " + AnalysisJob.STATE_PENDING + " AND analysis_jobs.notBefore <= :now " +
+            "ORDER BY analysis_jobs.priority DESC, analysis_jobs.trackId")
+    List<Track> getRunnableTracks(long now);
+
+    /**
+     * Returns the track of the pending job that should run next, null if none may run now.
+     */
+    @Query("SELECT tracks.* FROM analysis_jobs JOIN tracks ON tracks.id = analysis_jobs.trackId " +
+            "WHERE analysis_jobs.state = " + AnalysisJob.STATE_PENDING + " AND analysis_jobs.notBefore <= :now " +
+            "ORDER BY analysis_jobs.priority DESC, analysis_jobs.trackId LIMIT 1")
+    Track getNextRunnableTrack(long now);
+
+    /**
+     * Moves the pending jobs of the tracks up to the priority, jobs that already have a higher one keep it.
+     */
+    @Query("UPDATE analysis_jobs SET priority = :priority WHERE state = " + AnalysisJob.STATE_PENDING +
+            " AND priority < :priority AND trackId IN (:trackIds)")
+    int raisePriority(List<Long> trackIds, int priority);
+
+    /**
+     * Moves the pending jobs of the tracks from the same album or artist as the track up to the priority.
+     * They are the most likely neighbours of a track before their embeddings exist.
+     */
+    @Query("UPDATE analysis_jobs SET priority = :priority WHERE state = " + AnalysisJob.STATE_PENDING +
+            " AND priority < :priority AND trackId IN (SELECT id FROM tracks WHERE id != :trackId AND (" +
+            "(album IS NOT NULL AND album = (SELECT album FROM tracks WHERE id = :trackId)) OR " +
+            "(artist IS NOT NULL AND artist = (SELECT artist FROM tracks WHERE id = :trackId))))")
+    int raisePriorityOfRelatedTracks(long trackId, int priority);
+
+    /**
+     * Priorities reflect what the user is looking at, so they do not outlive the process.
+     */
+    @Query("UPDATE analysis_jobs SET priority = 0 WHERE priority != 0")
+    int resetPriorities();
+
+    /**
+     * Marks a pending job as running.
+     *
+     * @return 1 if this call claimed the job, 0 if it is already running, finished or cancelled
+     */
+    @Query("UPDATE analysis_jobs SET state = " + AnalysisJob.STATE_RUNNING +
+            " WHERE trackId = :trackId AND state = " + AnalysisJob.STATE_PENDING)
+    int claim(long trackId);
+
+    @Query("DELETE FROM analysis_jobs WHERE trackId = :trackId")
+    void complete(long trackId);
+
+    /**
+     * Records a failed attempt, the job either waits for its retry or is given up.
+     */
+    @Query("UPDATE analysis_jobs SET state = :state, attempts = attempts + 1, lastError = :error, " +
+            "notBefore = :notBefore WHERE trackId = :trackId")
+    void fail(long trackId, int state, String error, long notBefore);
+
+    @Query("SELECT attempts FROM analysis_jobs WHERE trackId = :trackId")
+    int getAttempts(long trackId);
+
+    /**
+     * @return The earliest time a waiting retry may run, null if no job waits
+     */
+    @Query("SELECT MIN(notBefore) FROM analysis_jobs WHERE state = " + AnalysisJob.STATE_PENDING +
+            " AND notBefore > :now")
+    Long getNextRetryTime(long now);
+}
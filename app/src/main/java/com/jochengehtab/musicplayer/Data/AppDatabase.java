@@ -6,8 +6,8 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 
-// 1. CHANGE VERSION FROM 1 TO 2
-@Database(entities = {Track.class, Playlist.class, PlaylistTrackCrossRef.class}, version = 1, exportSchema = false)
+@Database(entities = {Track.class, TrackFeatures.class, TrackNeighbour.class, Playlist.class,
+        PlaylistTrackCrossRef.class, AnalysisJob.class}, version = 6, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
     private static volatile AppDatabase INSTANCE;
 
@@ -17,6 +17,8 @@ public abstract class AppDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "music_database")
+                            .addMigrations(Migrations.MIGRATION_1_2, Migrations.MIGRATION_2_3, Migrations.MIGRATION_3_4,
+                                    Migrations.MIGRATION_4_5, Migrations.MIGRATION_5_6)
                             .build();
                 }
             }
@@ -27,4 +29,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract TrackDao trackDao();
 
     public abstract PlaylistDao playlistDao();
+
+    public abstract NeighbourDao neighbourDao();
+
+    public abstract AnalysisJobDao analysisJobDao();
 }
\ No newline at end of file
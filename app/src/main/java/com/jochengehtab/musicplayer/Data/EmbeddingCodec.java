@@ -0,0 +1,100 @@
+package com.jochengehtab.musicplayer.Data;
+
+import android.util.Half;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Binary format of the embedding column.
+ * <p>
+ * A 4 byte header, whose first byte is the {@link Format} id, followed by the little-endian values.
+ * The header keeps the values 4 byte aligned, so float32 embeddings can be read through a {@link FloatBuffer} view.
+ */
+public final class EmbeddingCodec {
+    public static final int HEADER_SIZE = 4;
+
+    // float16 halves the size again, at the cost of ~3 decimal digits of precision
+    public static final Format DEFAULT_FORMAT = Format.FLOAT32;
+
+    public enum Format {
+        FLOAT32(1, 4),
+        FLOAT16(2, 2);
+
+        final byte id;
+        final int bytesPerValue;
+
+        Format(int id, int bytesPerValue) {
+            this.id = (byte) id;
+            this.bytesPerValue = bytesPerValue;
+        }
+    }
+
+    private EmbeddingCodec() {
+    }
+
+    public static byte[] encode(float[] vector) {
+        return encode(vector, DEFAULT_FORMAT);
+    }
+
+    public static byte[] encode(float[] vector, Format format) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + vector.length * format.bytesPerValue)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(0, format.id);
+        buffer.position(HEADER_SIZE);
+
+        if (format == Format.FLOAT32) {
+            buffer.asFloatBuffer().put(vector);
+        } else {
+            ShortBuffer values = buffer.asShortBuffer();
+            for (float value : vector) {
+                values.put(Half.toHalf(value));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return The values, or null if there is no valid embedding
+     */
+    public static float[] decode(byte[] data) {
+        Format format = formatOf(data);
+        if (format == null) return null;
+
+        float[] vector = new float[(data.length - HEADER_SIZE) / format.bytesPerValue];
+        if (format == Format.FLOAT32) {
+            values(data).asFloatBuffer().get(vector);
+        } else {
+            ShortBuffer values = values(data).asShortBuffer();
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = Half.toFloat(values.get(i));
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * @return A read-only view on the stored values without copying them,
+     * or null if the embedding is missing or not stored as float32
+     */
+    public static FloatBuffer asFloatBuffer(byte[] data) {
+        if (formatOf(data) != Format.FLOAT32) return null;
+        return values(data).asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    private static Format formatOf(byte[] data) {
+        if (data == null || data.length <= HEADER_SIZE) return null;
+        for (Format format : Format.values()) {
+            if (format.id == data[0] && (data.length - HEADER_SIZE) % format.bytesPerValue == 0) return format;
+        }
+        return null;
+    }
+
+    private static ByteBuffer values(byte[] data) {
+        return ByteBuffer.wrap(data, HEADER_SIZE, data.length - HEADER_SIZE)
+                .slice()
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
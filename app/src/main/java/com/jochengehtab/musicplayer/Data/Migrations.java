@@ -0,0 +1,141 @@
+package com.jochengehtab.musicplayer.Data;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+public final class Migrations {
+    private static final String TAG = "Migrations";
+    private static final int PAGE_SIZE = 256;
+
+    private Migrations() {
+    }
+
+    /**
+     * Replaces the comma-separated embeddingVector text column with the binary embedding column.
+     * SQLite before 3.35 cannot drop columns, so the table is rebuilt.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `tracks_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`uri` TEXT, `title` TEXT, `artist` TEXT, `album` TEXT, `duration` INTEGER NOT NULL, " +
+                    "`dateModified` INTEGER NOT NULL, `startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, " +
+                    "`embedding` BLOB)");
+            db.execSQL("INSERT INTO `tracks_new` (`id`, `uri`, `title`, `artist`, `album`, `duration`, " +
+                    "`dateModified`, `startTime`, `endTime`) SELECT `id`, `uri`, `title`, `artist`, `album`, " +
+                    "`duration`, `dateModified`, `startTime`, `endTime` FROM `tracks`");
+
+            // Convert the embeddings page by page, so only a few of the large strings are in memory at once
+            SupportSQLiteStatement update = db.compileStatement("UPDATE `tracks_new` SET `embedding` = ? WHERE `id` = ?");
+            long lastId = -1;
+            int converted = 0;
+            int pageRows;
+            do {
+                pageRows = 0;
+                try (Cursor cursor = db.query("SELECT `id`, `embeddingVector` FROM `tracks` WHERE `id` > ? " +
+                        "AND `embeddingVector` IS NOT NULL AND `embeddingVector` != '' ORDER BY `id` LIMIT " + PAGE_SIZE,
+                        new Object[]{lastId})) {
+                    while (cursor.moveToNext()) {
+                        pageRows++;
+                        lastId = cursor.getLong(0);
+                        float[] vector = parseVector(cursor.getString(1));
+                        if (vector == null) continue;
+
+                        update.bindBlob(1, EmbeddingCodec.encode(vector));
+                        update.bindLong(2, lastId);
+                        update.executeUpdateDelete();
+                        update.clearBindings();
+                        converted++;
+                    }
+                }
+            } while (pageRows == PAGE_SIZE);
+
+            db.execSQL("DROP TABLE `tracks`");
+            db.execSQL("ALTER TABLE `tracks_new` RENAME TO `tracks`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tracks_uri` ON `tracks` (`uri`)");
+            Log.i(TAG, "Converted " + converted + " embeddings to binary");
+        }
+    };
+
+    /**
+     * Moves the embeddings into the track_features table and rebuilds the tracks table without them.
+     * The embeddings are parked in a table without a foreign key first,
+     * because dropping the old tracks table would otherwise cascade into the new one.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE `features_tmp` (`trackId` INTEGER NOT NULL, `embedding` BLOB)");
+            db.execSQL("INSERT INTO `features_tmp` (`trackId`, `embedding`) " +
+                    "SELECT `id`, `embedding` FROM `tracks` WHERE `embedding` IS NOT NULL");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `tracks_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`uri` TEXT, `title` TEXT, `artist` TEXT, `album` TEXT, `duration` INTEGER NOT NULL, " +
+                    "`dateModified` INTEGER NOT NULL, `startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO `tracks_new` (`id`, `uri`, `title`, `artist`, `album`, `duration`, " +
+                    "`dateModified`, `startTime`, `endTime`) SELECT `id`, `uri`, `title`, `artist`, `album`, " +
+                    "`duration`, `dateModified`, `startTime`, `endTime` FROM `tracks`");
+            db.execSQL("DROP TABLE `tracks`");
+            db.execSQL("ALTER TABLE `tracks_new` RENAME TO `tracks`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tracks_uri` ON `tracks` (`uri`)");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `track_features` (`trackId` INTEGER NOT NULL, `embedding` BLOB, " +
+                    "PRIMARY KEY(`trackId`), FOREIGN KEY(`trackId`) REFERENCES `tracks`(`id`) " +
+                    "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT INTO `track_features` (`trackId`, `embedding`) SELECT `trackId`, `embedding` FROM `features_tmp`");
+            db.execSQL("DROP TABLE `features_tmp`");
+        }
+    };
+
+    /**
+     * Adds the precomputed neighbour lists, they get filled in the background.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `track_neighbours` (`trackId` INTEGER NOT NULL, " +
+                    "`neighbourId` INTEGER NOT NULL, `score` REAL NOT NULL, PRIMARY KEY(`trackId`, `neighbourId`), " +
+                    "FOREIGN KEY(`trackId`) REFERENCES `tracks`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , " +
+                    "FOREIGN KEY(`neighbourId`) REFERENCES `tracks`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_track_neighbours_neighbourId` ON `track_neighbours` (`neighbourId`)");
+        }
+    };
+
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `playlists` ADD COLUMN `autoGenerated` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `analysis_jobs` (`trackId` INTEGER NOT NULL, " +
+                    "`state` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, `priority` INTEGER NOT NULL, " +
+                    "`lastError` TEXT, `notBefore` INTEGER NOT NULL, PRIMARY KEY(`trackId`), " +
+                    "FOREIGN KEY(`trackId`) REFERENCES `tracks`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_analysis_jobs_state_priority` " +
+                    "ON `analysis_jobs` (`state`, `priority`)");
+        }
+    };
+
+    private static float[] parseVector(String text) {
+        try {
+            String[] parts = text.split(",");
+            float[] vector = new float[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                vector[i] = Float.parseFloat(parts[i]);
+            }
+            return vector;
+        } catch (NumberFormatException e) {
+            // The track simply gets analyzed again
+            return null;
+        }
+    }
+}
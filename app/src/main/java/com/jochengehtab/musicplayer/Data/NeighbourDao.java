@@ -0,0 +1,61 @@
+package com.jochengehtab.musicplayer.Data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public interface NeighbourDao {
+
+    /**
+     * Returns the precomputed neighbours of a track, most similar first.
+     */
+    @Query("SELECT * FROM track_neighbours WHERE trackId = :trackId ORDER BY score DESC")
+    List<TrackNeighbour> getNeighbours(long trackId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertNeighbours(List<TrackNeighbour> neighbours);
+
+    @Query("DELETE FROM track_neighbours WHERE trackId = :trackId")
+    void deleteNeighbours(long trackId);
+
+    /**
+     * Replaces the whole neighbour list of a track.
+     */
+    @Transaction
+    default void replaceNeighbours(long trackId, List<TrackNeighbour> neighbours) {
+        deleteNeighbours(trackId);
+        insertNeighbours(neighbours);
+    }
+
+    /**
+     * Removes all but the {@code keep} most similar neighbours of a track.
+     */
+    @Query("DELETE FROM track_neighbours WHERE trackId = :trackId AND neighbourId NOT IN " +
+            "(SELECT neighbourId FROM track_neighbours WHERE trackId = :trackId ORDER BY score DESC LIMIT :keep)")
+    void trimNeighbours(long trackId, int keep);
+
+    /**
+     * Adds a single neighbour to an existing list and drops the weakest one if the list gets too long.
+     */
+    @Transaction
+    default void patchNeighbour(TrackNeighbour neighbour, int keep) {
+        insertNeighbours(List.of(neighbour));
+        trimNeighbours(neighbour.trackId, keep);
+    }
+
+    /**
+     * Returns the analyzed tracks whose neighbour list is missing or shorter than {@code minCount},
+     * e.g. because neighbours got deleted.
+     */
+    @Query("SELECT f.trackId FROM track_features f LEFT JOIN track_neighbours n ON n.trackId = f.trackId " +
+            "WHERE f.embedding IS NOT NULL GROUP BY f.trackId HAVING COUNT(n.neighbourId) < :minCount")
+    List<Long> getStaleTracks(int minCount);
+
+    @Query("SELECT trackId, MIN(score) AS minScore, COUNT(*) AS count FROM track_neighbours GROUP BY trackId")
+    List<NeighbourThreshold> getThresholds();
+}
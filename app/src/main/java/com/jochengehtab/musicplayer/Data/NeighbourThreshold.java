@@ -0,0 +1,11 @@
+package com.jochengehtab.musicplayer.Data;
+
+/**
+ * The weakest score and the size of the neighbour list of a track.
+ * A new track only has to be patched into lists whose weakest score it beats.
+ */
+public class NeighbourThreshold {
+    public long trackId;
+    public float minScore;
+    public int count;
+}
@@ -1,5 +1,6 @@
 package com.jochengehtab.musicplayer.Data;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
@@ -10,6 +11,10 @@ public class Playlist {
 
     public String name;
 
+    // Sound-alike playlists are replaced whenever the library gets clustered again
+    @ColumnInfo(defaultValue = "0")
+    public boolean autoGenerated;
+
     public Playlist(String name) {
         this.name = name;
     }
@@ -6,6 +6,7 @@ import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Transaction;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Dao
@@ -68,4 +69,57 @@ public interface PlaylistDao {
      */
     @Query("DELETE FROM playlists WHERE name = :playlistName")
     void deletePlaylist(String playlistName);
-}
\ No newline at end of file
+
+    /**
+     * Returns the sound-alike playlists created by the clustering.
+     */
+    @Query("SELECT * FROM playlists WHERE autoGenerated = 1")
+    List<Playlist> getAutoPlaylists();
+
+    /**
+     * Returns the ids of the tracks in a playlist.
+     */
+    @Query("SELECT trackId FROM PlaylistTrackCrossRef WHERE playlistId = :playlistId")
+    List<Long> getPlaylistTrackIds(long playlistId);
+
+    /**
+     * Returns the analyzed tracks that are in none of the sound-alike playlists yet.
+     */
+    @Query("SELECT trackId FROM track_features WHERE embedding IS NOT NULL AND trackId NOT IN " +
+            "(SELECT trackId FROM PlaylistTrackCrossRef WHERE playlistId IN " +
+            "(SELECT id FROM playlists WHERE autoGenerated = 1))")
+    List<Long> getTracksWithoutAutoPlaylist();
+
+    @Query("DELETE FROM PlaylistTrackCrossRef WHERE playlistId IN (SELECT id FROM playlists WHERE autoGenerated = 1)")
+    void removeAllTracksFromAutoPlaylists();
+
+    @Query("DELETE FROM playlists WHERE autoGenerated = 1")
+    void deleteAutoPlaylists();
+
+    /**
+     * Replaces all sound-alike playlists in one transaction.
+     *
+     * @param names   The name of every new playlist
+     * @param members The track ids of every new playlist, in the same order as the names
+     */
+    @Transaction
+    default void replaceAutoPlaylists(List<String> names, List<long[]> members) {
+        removeAllTracksFromAutoPlaylists();
+        deleteAutoPlaylists();
+
+        List<PlaylistTrackCrossRef> crossRefs = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            Playlist playlist = new Playlist(names.get(i));
+            playlist.autoGenerated = true;
+            long playlistId = createPlaylist(playlist);
+
+            for (long trackId : members.get(i)) {
+                PlaylistTrackCrossRef crossRef = new PlaylistTrackCrossRef();
+                crossRef.playlistId = playlistId;
+                crossRef.trackId = trackId;
+                crossRefs.add(crossRef);
+            }
+        }
+        addTracksToPlaylist(crossRefs);
+    }
+}
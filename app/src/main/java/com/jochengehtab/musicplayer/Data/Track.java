@@ -18,9 +18,6 @@ public class Track {
     public long startTime;
     public long endTime;
 
-    // Stored as a comma-separated string (e.g., "0.123,0.552,-0.992...")
-    public String embeddingVector;
-
     public Track(String uri, String title, String artist, String album, long duration, long dateModified) {
         this.uri = uri;
         this.title = title;
@@ -32,20 +29,5 @@ public class Track {
         this.endTime = duration;
     }
 
-    // Helper to convert String back to float[] for math
-    public float[] getStyleVector() {
-        if (embeddingVector == null || embeddingVector.isEmpty()) return null;
-        try {
-            String[] parts = embeddingVector.split(",");
-            float[] vector = new float[parts.length];
-            for (int i = 0; i < parts.length; i++) {
-                vector[i] = Float.parseFloat(parts[i]);
-            }
-            return vector;
-        } catch (NumberFormatException e) {
-            return null;
-        }
-    }
-
     // ... (equals/hashCode remain the same)
 }
\ No newline at end of file
@@ -16,15 +16,30 @@ public interface TrackDao {
     @Query("SELECT * FROM tracks")
     List<Track> getAllTracks();
 
+    // Paged by id, so the embedding blobs of a large library never have to be in memory all at once
+    @Query("SELECT * FROM track_features WHERE trackId > :afterId AND embedding IS NOT NULL " +
+            "ORDER BY trackId LIMIT :limit")
+    List<TrackFeatures> getEmbeddingsAfter(long afterId, int limit);
+
+    @Query("SELECT * FROM tracks WHERE id NOT IN (SELECT trackId FROM track_features WHERE embedding IS NOT NULL)")
+    List<Track> getUnanalyzedTracks();
+
+    @Query("SELECT * FROM track_features WHERE trackId = :trackId")
+    TrackFeatures getFeatures(long trackId);
+
     @Query("SELECT * FROM tracks WHERE id = :trackId")
     Track getTrack(long trackId);
 
+    // In no particular order, callers sort by their own id list
+    @Query("SELECT * FROM tracks WHERE id IN (:trackIds)")
+    List<Track> getTracks(long[] trackIds);
+
     @Update
     void updateTrack(Track track);
 
-    @Query("UPDATE tracks SET embeddingVector = :vector WHERE id = :trackId")
-    void updateTrackEmbedding(long trackId, String vector);
+    @Query("INSERT OR REPLACE INTO track_features (trackId, embedding) VALUES (:trackId, :embedding)")
+    void updateTrackEmbedding(long trackId, byte[] embedding);
 
     @Query("DELETE FROM tracks WHERE uri NOT IN (:currentUris)")
-    void deleteOrphanedTracks(List<String> currentUris);
+    int deleteOrphanedTracks(List<String> currentUris);
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.jochengehtab.musicplayer.Data;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.PrimaryKey;
+
+/**
+ * Analysis results of a track, kept out of the tracks table so list queries never page through them.
+ * Deleted together with its track.
+ */
+@Entity(tableName = "track_features",
+        foreignKeys = @ForeignKey(
+                entity = Track.class,
+                parentColumns = "id",
+                childColumns = "trackId",
+                onDelete = ForeignKey.CASCADE
+        ))
+public class TrackFeatures {
+    @PrimaryKey
+    public long trackId;
+
+    // Binary embedding, see EmbeddingCodec for the layout
+    public byte[] embedding;
+
+    public TrackFeatures(long trackId, byte[] embedding) {
+        this.trackId = trackId;
+        this.embedding = embedding;
+    }
+
+    public float[] getStyleVector() {
+        return EmbeddingCodec.decode(embedding);
+    }
+}
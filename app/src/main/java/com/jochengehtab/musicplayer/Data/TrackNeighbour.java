@@ -0,0 +1,30 @@
+package com.jochengehtab.musicplayer.Data;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+/**
+ * One entry of the precomputed neighbour list of a track.
+ * Removing either track removes the entry.
+ */
+@Entity(tableName = "track_neighbours",
+        primaryKeys = {"trackId", "neighbourId"},
+        foreignKeys = {
+                @ForeignKey(entity = Track.class, parentColumns = "id", childColumns = "trackId",
+                        onDelete = ForeignKey.CASCADE),
+                @ForeignKey(entity = Track.class, parentColumns = "id", childColumns = "neighbourId",
+                        onDelete = ForeignKey.CASCADE)
+        },
+        indices = {@Index(value = {"neighbourId"})})
+public class TrackNeighbour {
+    public long trackId;
+    public long neighbourId;
+    public float score;
+
+    public TrackNeighbour(long trackId, long neighbourId, float score) {
+        this.trackId = trackId;
+        this.neighbourId = neighbourId;
+        this.score = score;
+    }
+}
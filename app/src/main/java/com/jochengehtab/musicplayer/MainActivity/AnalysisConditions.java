@@ -0,0 +1,51 @@
+package com.jochengehtab.musicplayer.MainActivity;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Decides whether the library analysis may run. Analyzing a whole library takes hours of full CPU load,
+ * so it only runs while charging, or while the battery is comfortably full and the battery saver is off.
+ */
+final class AnalysisConditions {
+    private static final int MIN_BATTERY_PERCENT = 30;
+
+    private AnalysisConditions() {
+    }
+
+    static boolean canRun(Context context) {
+        BatteryManager batteryManager = context.getSystemService(BatteryManager.class);
+        PowerManager powerManager = context.getSystemService(PowerManager.class);
+        if (batteryManager == null || powerManager == null) return true;
+
+        return canRun(batteryManager.isCharging(), batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY),
+                powerManager.isPowerSaveMode());
+    }
+
+    static boolean canRun(boolean charging, int batteryPercent, boolean powerSaveMode) {
+        if (charging) return true;
+        return !powerSaveMode && batteryPercent >= MIN_BATTERY_PERCENT;
+    }
+
+    /**
+     * Runs the action once, the next time the device gets plugged in.
+     */
+    static void runWhenCharging(Context context, Runnable action) {
+        Context appContext = context.getApplicationContext();
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context receiverContext, Intent intent) {
+                appContext.unregisterReceiver(this);
+                action.run();
+            }
+        };
+        ContextCompat.registerReceiver(appContext, receiver, new IntentFilter(Intent.ACTION_POWER_CONNECTED),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+}
@@ -0,0 +1,73 @@
+package com.jochengehtab.musicplayer.MainActivity;
+
+import android.content.Context;
+
+import com.jochengehtab.musicplayer.Data.AnalysisJobDao;
+import com.jochengehtab.musicplayer.Data.AppDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decides which tracks the library analysis takes first, by raising the priority of their jobs.
+ * The analysis workers always claim the pending job with the highest priority next,
+ * so a raised priority takes effect as soon as a worker finishes its current track.
+ */
+public final class AnalysisScheduler {
+    // Tracks of the playlist on screen
+    public static final int PRIORITY_VISIBLE = 10;
+    // Same album or artist as the playing track, the most likely candidates for its mix
+    public static final int PRIORITY_RELATED = 20;
+    // Tracks in the play queue
+    public static final int PRIORITY_QUEUED = 30;
+
+    // SQLite allows at most 999 variables per statement
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private static volatile AnalysisScheduler instance;
+
+    private final AppDatabase database;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private AnalysisScheduler(Context context) {
+        this.database = AppDatabase.getDatabase(context);
+    }
+
+    public static AnalysisScheduler getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AnalysisScheduler.class) {
+                if (instance == null) {
+                    instance = new AnalysisScheduler(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Raises the tracks to at least the priority on a background thread.
+     */
+    public void prioritize(List<Long> trackIds, int priority) {
+        if (trackIds.isEmpty()) return;
+        List<Long> copy = new ArrayList<>(trackIds);
+
+        executor.execute(() -> {
+            AnalysisJobDao jobs = database.analysisJobDao();
+            database.runInTransaction(() -> {
+                for (int from = 0; from < copy.size(); from += MAX_IDS_PER_QUERY) {
+                    jobs.raisePriority(copy.subList(from, Math.min(copy.size(), from + MAX_IDS_PER_QUERY)), priority);
+                }
+            });
+        });
+    }
+
+    /**
+     * Raises the tracks related to the playing track and the play queue, called whenever a track starts.
+     */
+    public void prioritizeAround(long playingTrackId, List<Long> queuedTrackIds) {
+        prioritize(queuedTrackIds, PRIORITY_QUEUED);
+        executor.execute(() -> database.analysisJobDao().raisePriorityOfRelatedTracks(playingTrackId, PRIORITY_RELATED));
+    }
+}
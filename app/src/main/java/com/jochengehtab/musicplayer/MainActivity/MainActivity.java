@@ -44,7 +44,9 @@ import com.jochengehtab.musicplayer.Data.PlaylistTrackCrossRef;
 import com.jochengehtab.musicplayer.Data.PlaylistWithTracks;
 import com.jochengehtab.musicplayer.Data.Track;
 import com.jochengehtab.musicplayer.Dialog.PlaylistDialog;
+import com.jochengehtab.musicplayer.Music.EmbeddingIndex;
 import com.jochengehtab.musicplayer.Music.MusicUtility;
+import com.jochengehtab.musicplayer.Music.NeighbourGraph;
 import com.jochengehtab.musicplayer.MusicList.OnItemClickListener;
 import com.jochengehtab.musicplayer.MusicList.TrackAdapter;
 import com.jochengehtab.musicplayer.R;
@@ -79,7 +81,6 @@ public class MainActivity extends AppCompatActivity {
     private ProgressBar updateProgressBar;
     private AppDatabase database;
     private ImageButton syncStatusButton;
-    private MusicAnalysis musicAnalysis;
     private Animation rotateAnimation;
     private LinearLayout activeThreadsContainer;
     private TextView dialogEtaText;
@@ -334,7 +335,13 @@ public class MainActivity extends AppCompatActivity {
                     .collect(Collectors.toList());
 
             if (!currentMediaStoreUris.isEmpty()) {
-                database.trackDao().deleteOrphanedTracks(currentMediaStoreUris);
+                int deleted = database.trackDao().deleteOrphanedTracks(currentMediaStoreUris);
+                if (deleted > 0) {
+                    // Deleted tracks must not be recommended anymore
+                    EmbeddingIndex.getInstance().invalidate();
+                    // The cascade removed them from the neighbour lists, refill the gaps
+                    NeighbourGraph.getInstance().requestRefresh(database);
+                }
             }
 
             List<Track> allTracksFromDb = database.trackDao().getAllTracks();
@@ -426,6 +433,13 @@ public class MainActivity extends AppCompatActivity {
 
             currentlyDisplayedTracks = new ArrayList<>(playlistTracks);
 
+            // The tracks on screen are analyzed before the rest of the library
+            List<Long> trackIds = new ArrayList<>(playlistTracks.size());
+            for (Track track : playlistTracks) {
+                trackIds.add(track.id);
+            }
+            AnalysisScheduler.getInstance(this).prioritize(trackIds, AnalysisScheduler.PRIORITY_VISIBLE);
+
             runOnUiThread(() -> {
                 trackAdapter.updateList(currentlyDisplayedTracks);
                 bottomTitle.setText(R.string.no_track_selected);
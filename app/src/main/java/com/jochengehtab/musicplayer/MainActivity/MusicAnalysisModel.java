@@ -4,119 +4,336 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import com.jochengehtab.musicplayer.AudioClassifier.AudioClassifier;
+import com.jochengehtab.musicplayer.AudioClassifier.AnalysisPipeline;
+import com.jochengehtab.musicplayer.AudioClassifier.AudioClassifierPool;
+import com.jochengehtab.musicplayer.AudioClassifier.ClassifierTuner;
+import com.jochengehtab.musicplayer.Data.AnalysisJob;
+import com.jochengehtab.musicplayer.Data.AnalysisJobDao;
 import com.jochengehtab.musicplayer.Data.AppDatabase;
+import com.jochengehtab.musicplayer.Data.EmbeddingCodec;
 import com.jochengehtab.musicplayer.Data.Track;
+import com.jochengehtab.musicplayer.Music.AutoPlaylists;
+import com.jochengehtab.musicplayer.Music.EmbeddingIndex;
+import com.jochengehtab.musicplayer.Music.HnswIndex;
+import com.jochengehtab.musicplayer.Music.LshIndex;
+import com.jochengehtab.musicplayer.Music.NeighbourGraph;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class MusicAnalysisModel {
+    private static final String TAG = "MusicAnalysisModel";
+
+    // Attempts per track before it is given up, the n-th retry waits RETRY_BACKOFF_MS * 2^(n - 1)
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 60_000;
+
+    // Running jobs are only reset once per process, later resets would requeue jobs of this process
+    private static final AtomicBoolean JOBS_RESUMED = new AtomicBoolean(false);
+
+    // Decoding mostly waits for the codec, a few threads keep the inference workers busy
+    private static final int DECODER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     private final AppDatabase database;
     private final List<String> analysisQueueTitles = Collections.synchronizedList(new LinkedList<>());
-    private final AtomicInteger pendingTasksCount = new AtomicInteger(0);
-    private final int OPTIMAL_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 3);
-    private final ThreadLocal<AudioClassifier> threadLocalClassifier;
+    // Inference workers, replaced by the tuned pool size before the first analysis starts
+    private volatile int analysisThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 3);
+    private final AudioClassifierPool classifierPool;
     private final ExecutorService analysisExecutor;
+    // Created with the tuned number of inference workers when the first analysis starts
+    private volatile AnalysisPipeline pipeline;
+    // Decoder workers pull their jobs from the database, guarded by the worker lock
+    private final Object workerLock = new Object();
+    private int activeWorkers = 0;
+    // Tracks that were claimed but whose embedding is not stored yet, guarded by the worker lock
+    private final Map<Long, Track> tracksInFlight = new HashMap<>();
     private final Map<Long, TaskStatus> activeTasks = new ConcurrentHashMap<>();
     private final AtomicLong totalTimeSpentProcessing = new AtomicLong(0);
     private final AtomicInteger totalTracksProcessed = new AtomicInteger(0);
     private static final long DEFAULT_ESTIMATE_MS = 15000; // 15s default if no data yet
     private final ExecutorService executor;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean waitingForCharger = new AtomicBoolean(false);
+    private volatile MusicAnalysisCallback activeCallback;
+    private final Context context;
 
 
     // TODO check if passing via constructor is the best option for the database
     public MusicAnalysisModel(AppDatabase database, ExecutorService executor, Context context) {
         this.database = database;
         this.executor = executor;
-        analysisExecutor = Executors.newFixedThreadPool(OPTIMAL_THREAD_COUNT);
-        threadLocalClassifier = ThreadLocal.withInitial(() -> new AudioClassifier(context));
+        this.context = context;
+        analysisExecutor = Executors.newFixedThreadPool(DECODER_THREADS);
+        classifierPool = AudioClassifierPool.getInstance(context);
     }
 
+    /**
+     * Queues every track without an embedding and starts the jobs that may run now.
+     * The queue is stored in the database, so jobs survive the process and are never queued twice.
+     */
     public void checkAndStartAnalysis(MusicAnalysisCallback callback) {
         executor.execute(() -> {
-            // Get all unanalyzed tracks
-            List<Track> allTracks = database.trackDao().getAllTracks();
-            List<Track> unanalyzedTracks = new ArrayList<>();
-
-            for (Track track : allTracks) {
-                if (track.embeddingVector == null || track.embeddingVector.isEmpty()) {
-                    unanalyzedTracks.add(track);
-                    analysisQueueTitles.add(track.title);
-                }
+            AnalysisJobDao jobs = database.analysisJobDao();
+
+            // Jobs that were running when the process died start over, nothing of this process runs yet
+            if (JOBS_RESUMED.compareAndSet(false, true)) {
+                int resumed = jobs.resetRunningJobs();
+                if (resumed > 0) Log.i(TAG, "Resuming " + resumed + " interrupted analysis jobs");
+                jobs.resetPriorities();
             }
+            jobs.enqueueUnanalyzedTracks();
 
-            if (unanalyzedTracks.isEmpty()) return;
-            pendingTasksCount.addAndGet(unanalyzedTracks.size());
+            if (!AnalysisConditions.canRun(context)) {
+                Log.i(TAG, "Waiting for the charger before analyzing");
+                waitForCharger(callback);
+                return;
+            }
+
+            List<Track> runnableTracks = jobs.getRunnableTracks(System.currentTimeMillis());
+            if (runnableTracks.isEmpty()) {
+                scheduleRetry(callback);
+                return;
+            }
+            for (Track track : runnableTracks) {
+                if (!analysisQueueTitles.contains(track.title)) analysisQueueTitles.add(track.title);
+            }
 
             // The analysis has begun
             callback.onStarted();
 
-            // Submit Tasks
-            for (Track track : unanalyzedTracks) {
-                analysisExecutor.execute(() -> {
-                    long threadId = Thread.currentThread().getId();
-                    long startTime = System.currentTimeMillis();
-
-                    // Register Task Start
-                    activeTasks.put(threadId, new TaskStatus(track.title, startTime));
+            // Benchmarks the device on the first run, afterward the stored config is used.
+            // Runs on the analysis executor, so the benchmark does not block the shared executor.
+            analysisExecutor.execute(() -> {
+                ClassifierTuner.Config config = ClassifierTuner.loadOrTune(context);
+                ClassifierTuner.apply(context, config);
+                AnalysisPipeline analysisPipeline = getPipeline(config.poolSize, jobs, callback);
+
+                // Running workers pick the new jobs up themselves, only missing ones are started
+                synchronized (workerLock) {
+                    if (activeWorkers == 0 && tracksInFlight.isEmpty()) analysisPipeline.resetStatistics();
+
+                    int missing = Math.min(DECODER_THREADS, runnableTracks.size()) - activeWorkers;
+                    for (int i = 0; i < missing; i++) {
+                        activeWorkers++;
+                        analysisExecutor.execute(() -> runWorker(jobs, callback));
+                    }
+                }
+            });
+        });
+    }
 
-                    updateDialogStatus(callback);
+    /**
+     * Starts the analysis again once the device gets plugged in, at most one such start is pending.
+     */
+    private void waitForCharger(MusicAnalysisCallback callback) {
+        if (!waitingForCharger.compareAndSet(false, true)) return;
+        AnalysisConditions.runWhenCharging(context, () -> {
+            waitingForCharger.set(false);
+            checkAndStartAnalysis(callback);
+        });
+    }
 
-                    try {
-                        Uri uri = Uri.parse(track.uri);
-                        AudioClassifier classifier = threadLocalClassifier.get();
-                        assert classifier != null;
-                        float[] vector = classifier.getStyleEmbedding(uri, (percent, msg) -> {
-                            // Update Status
-                            TaskStatus status = activeTasks.get(threadId);
+    /**
+     * The pipeline is created once, the listener it was created with always reports to the latest callback.
+     */
+    private AnalysisPipeline getPipeline(int inferenceWorkers, AnalysisJobDao jobs, MusicAnalysisCallback callback) {
+        activeCallback = callback;
+        if (pipeline == null) {
+            synchronized (workerLock) {
+                if (pipeline == null) {
+                    analysisThreadCount = inferenceWorkers;
+                    pipeline = new AnalysisPipeline(context, classifierPool, inferenceWorkers,
+                            2 * Math.max(DECODER_THREADS, inferenceWorkers), new AnalysisPipeline.Listener() {
+                        @Override
+                        public void onProgress(long trackId, int percent) {
+                            TaskStatus status = activeTasks.get(trackId);
                             if (status != null) {
                                 status.progress = percent;
                             }
-                            updateDialogStatus(callback);
-                        });
-
-                        if (vector.length > 0) {
-                            StringBuilder sb = new StringBuilder();
-                            for (int i = 0; i < vector.length; i++) {
-                                if (i > 0) sb.append(",");
-                                sb.append(vector[i]);
-                            }
-                            database.trackDao().updateTrackEmbedding(track.id, sb.toString());
+                            updateDialogStatus(activeCallback);
                         }
-                    } catch (Exception e) {
-                        Log.e("Analysis", "Error analyzing " + track.title, e);
-                    } finally {
-                        // Metrics update
-                        long duration = System.currentTimeMillis() - startTime;
-                        totalTimeSpentProcessing.addAndGet(duration);
-                        totalTracksProcessed.incrementAndGet();
-
-                        // 3. Remove Task on Finish
-                        activeTasks.remove(threadId);
-                    }
 
-                    // Remove from Queue & Cleanup
-                    analysisQueueTitles.remove(track.title);
-                    int remaining = pendingTasksCount.decrementAndGet();
+                        @Override
+                        public void onFinished(long trackId, float[] embedding) {
+                            storeResult(jobs, trackId, embedding, activeCallback);
+                        }
+                    });
+                    pipeline.setDecoderThreads(DECODER_THREADS);
+                }
+            }
+        }
+        return pipeline;
+    }
 
-                    updateDialogStatus(callback);
+    /**
+     * Decodes one job after another, always the one with the highest priority at that moment,
+     * until no job may run anymore. The inference runs on the workers of the pipeline,
+     * so the next track is already decoded while the last one is analyzed.
+     */
+    private void runWorker(AnalysisJobDao jobs, MusicAnalysisCallback callback) {
+        Track track;
+        while ((track = claimNextJob(jobs, callback)) != null) {
+            // Register Task Start
+            activeTasks.put(track.id, new TaskStatus(track.title, System.currentTimeMillis()));
+            updateDialogStatus(callback);
+
+            try {
+                pipeline.decode(track.id, Uri.parse(track.uri));
+            } catch (InterruptedException e) {
+                // The pipeline still reports the probes that were queued before
+                Log.w(TAG, "Decoding " + track.title + " was interrupted");
+                Thread.currentThread().interrupt();
+                retireWorker(callback);
+                return;
+            } catch (RuntimeException e) {
+                Log.e("Analysis", "Error analyzing " + track.title, e);
+            }
+        }
+    }
 
-                    if (remaining == 0) {
-                        callback.onFinish();
-                    }
+    /**
+     * Claims the next job, or retires the worker if there is none. Both happen under the worker lock,
+     * so a job queued while the last worker retires is seen by either that worker or a new one.
+     * The worker also retires once the analysis may no longer run, e.g. the battery ran low since it started.
+     * The tracks in flight are still finished, the remaining jobs wait for the charger.
+     *
+     * @return The track of the claimed job, null if the worker retired
+     */
+    private Track claimNextJob(AnalysisJobDao jobs, MusicAnalysisCallback callback) {
+        if (!AnalysisConditions.canRun(context)) {
+            Log.i(TAG, "Pausing the analysis until the charger is connected");
+            waitForCharger(callback);
+            retireWorker(callback);
+            return null;
+        }
+
+        synchronized (workerLock) {
+            Track track;
+            while ((track = jobs.getNextRunnableTrack(System.currentTimeMillis())) != null) {
+                // Claiming a job makes it running, a job that is already running is not started a second time
+                if (jobs.claim(track.id) == 1) {
+                    tracksInFlight.put(track.id, track);
+                    return track;
+                }
+            }
+        }
+        retireWorker(callback);
+        return null;
+    }
+
+    private void retireWorker(MusicAnalysisCallback callback) {
+        boolean finished;
+        synchronized (workerLock) {
+            finished = --activeWorkers == 0 && tracksInFlight.isEmpty();
+        }
+        if (finished) onAnalysisFinished(callback);
+    }
+
+    /**
+     * Stores the embedding the pipeline computed for a track, or records the failure of its job.
+     * Runs on the persist thread of the pipeline, so the database and the indexes never block an inference worker.
+     */
+    private void storeResult(AnalysisJobDao jobs, long trackId, float[] vector, MusicAnalysisCallback callback) {
+        Track track;
+        synchronized (workerLock) {
+            track = tracksInFlight.get(trackId);
+        }
+        if (track == null) return;
+
+        try {
+            if (vector.length > 0) {
+                database.runInTransaction(() -> {
+                    database.trackDao().updateTrackEmbedding(track.id, EmbeddingCodec.encode(vector));
+                    jobs.complete(track.id);
                 });
+                EmbeddingIndex.getInstance().put(track.id, vector);
+                // Before the graph was loaded the next sync picks the track up from the database
+                HnswIndex annIndex = HnswIndex.getInstance();
+                if (annIndex.isReady()) annIndex.add(track.id);
+                LshIndex.getInstance().add(track.id, vector);
+            } else {
+                failJob(jobs, track, "No audio could be decoded");
+            }
+        } catch (Exception e) {
+            Log.e("Analysis", "Error analyzing " + track.title, e);
+            failJob(jobs, track, e.toString());
+        } finally {
+            // Metrics update
+            TaskStatus status = activeTasks.remove(track.id);
+            if (status != null) {
+                totalTimeSpentProcessing.addAndGet(System.currentTimeMillis() - status.startTime);
+                totalTracksProcessed.incrementAndGet();
             }
+        }
+
+        // Remove from Queue & Cleanup
+        analysisQueueTitles.remove(track.title);
+        updateDialogStatus(callback);
+
+        boolean finished;
+        synchronized (workerLock) {
+            tracksInFlight.remove(trackId);
+            finished = activeWorkers == 0 && tracksInFlight.isEmpty();
+        }
+        if (finished) onAnalysisFinished(callback);
+    }
+
+    /**
+     * Called once the last decoder worker retired and the last track in flight was stored.
+     */
+    private void onAnalysisFinished(MusicAnalysisCallback callback) {
+        Log.i(TAG, pipeline.getUtilizationReport());
+        HnswIndex.getInstance().saveIfDirty();
+        NeighbourGraph.getInstance().requestRefresh(database);
+        // Only the new tracks are assigned, unless the library grew too much
+        AutoPlaylists.getInstance().requestUpdate(database);
+        updateDialogStatus(callback);
+        callback.onFinish();
+        scheduleRetry(callback);
+    }
+
+    /**
+     * Puts the job back into the queue with an exponential backoff, or gives it up once the retry budget is used.
+     */
+    private void failJob(AnalysisJobDao jobs, Track track, String error) {
+        try {
+            int attempts = jobs.getAttempts(track.id) + 1;
+            if (attempts >= MAX_ATTEMPTS) {
+                Log.w(TAG, "Giving up on " + track.title + " after " + attempts + " attempts: " + error);
+                jobs.fail(track.id, AnalysisJob.STATE_FAILED, error, 0);
+            } else {
+                long backoff = RETRY_BACKOFF_MS << (attempts - 1);
+                jobs.fail(track.id, AnalysisJob.STATE_PENDING, error, System.currentTimeMillis() + backoff);
+            }
+        } catch (RuntimeException e) {
+            // The job was cancelled with its track
+            Log.w(TAG, "Could not record the failure of " + track.title, e);
+        }
+    }
+
+    /**
+     * Starts the analysis again once the earliest waiting retry is due.
+     */
+    private void scheduleRetry(MusicAnalysisCallback callback) {
+        executor.execute(() -> {
+            long now = System.currentTimeMillis();
+            Long nextRetry = database.analysisJobDao().getNextRetryTime(now);
+            if (nextRetry == null) return;
+
+            retryScheduler.schedule(() -> checkAndStartAnalysis(callback), nextRetry - now, TimeUnit.MILLISECONDS);
         });
     }
 
@@ -148,7 +365,7 @@ public class MusicAnalysisModel {
                 : DEFAULT_ESTIMATE_MS;
 
         // Queue Time
-        long timeForQueue = (itemsInQueue * avgTimePerTrack) / OPTIMAL_THREAD_COUNT;
+        long timeForQueue = (itemsInQueue * avgTimePerTrack) / analysisThreadCount;
 
         // Add Average Remaining time for current active tasks
         // (Simplified: assume active tasks are halfway done on average)
@@ -162,6 +379,6 @@ public class MusicAnalysisModel {
         String timeString = (minutes > 0) ? minutes + "m " + seconds + "s" : seconds + "s";
 
         return "Queue: " + itemsInQueue + " tracks waiting\n" +
-                "Est. time: " + timeString + " (" + OPTIMAL_THREAD_COUNT + " threads)";
+                "Est. time: " + timeString + " (" + analysisThreadCount + " threads)";
     }
 }
@@ -0,0 +1,201 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Data.AppDatabase;
+import com.jochengehtab.musicplayer.Data.Playlist;
+import com.jochengehtab.musicplayer.Data.PlaylistDao;
+import com.jochengehtab.musicplayer.Data.PlaylistTrackCrossRef;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the sound-alike playlists, clusters of the library by style embedding, up to date.
+ * <p>
+ * The first run clusters the whole library with {@link KMeans} and writes one playlist per cluster.
+ * Later runs only add the newly analyzed tracks to the playlist with the nearest centroid,
+ * until the library grew so much since the last clustering that it is clustered again.
+ */
+public final class AutoPlaylists {
+    private static final String TAG = "AutoPlaylists";
+    public static final String NAME_PREFIX = "Sound-alike ";
+
+    private static final int TRACKS_PER_PLAYLIST = 50;
+    private static final int MAX_PLAYLISTS = 16;
+    private static final int MAX_ITERATIONS = 20;
+
+    // Cluster again once the library grew by half since the last clustering
+    private static final float RECLUSTER_GROWTH = 0.5f;
+
+    private static final AutoPlaylists INSTANCE = new AutoPlaylists();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean updateQueued = new AtomicBoolean(false);
+
+    private AutoPlaylists() {
+    }
+
+    public static AutoPlaylists getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds the newly analyzed tracks to the sound-alike playlists on a background thread,
+     * or clusters the library if there are no playlists yet or it grew too much.
+     * Calls while an update is waiting to start are merged into it.
+     */
+    public void requestUpdate(AppDatabase database) {
+        if (!updateQueued.compareAndSet(false, true)) return;
+
+        executor.execute(() -> {
+            updateQueued.set(false);
+            try {
+                update(database);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Updating the sound-alike playlists failed", e);
+            }
+        });
+    }
+
+    private void update(AppDatabase database) {
+        EmbeddingIndex index = EmbeddingIndex.getInstance();
+        index.ensureLoaded(database);
+        PlaylistDao dao = database.playlistDao();
+
+        List<Playlist> playlists = dao.getAutoPlaylists();
+        List<Long> unassigned = dao.getTracksWithoutAutoPlaylist();
+        int assigned = index.size() - unassigned.size();
+        if (playlists.isEmpty() || unassigned.size() > assigned * RECLUSTER_GROWTH) {
+            recluster(database, index);
+        } else if (!unassigned.isEmpty()) {
+            assign(database, index, playlists, unassigned);
+        }
+    }
+
+    /**
+     * Replaces all sound-alike playlists with a fresh clustering of the whole library.
+     */
+    private void recluster(AppDatabase database, EmbeddingIndex index) {
+        long start = System.nanoTime();
+        EmbeddingIndex.Snapshot snapshot = index.snapshot();
+        int k = Math.min(MAX_PLAYLISTS, snapshot.size() / TRACKS_PER_PLAYLIST);
+        if (k < 2) return;
+
+        KMeans kMeans = new KMeans(snapshot, k);
+        int iterations = kMeans.run(MAX_ITERATIONS, snapshot.size());
+        long clustered = System.nanoTime();
+
+        // Collect the members of every cluster
+        int[] assignment = kMeans.getAssignment();
+        int[] counts = new int[k];
+        for (int cluster : assignment) {
+            counts[cluster]++;
+        }
+        long[][] members = new long[k][];
+        for (int cluster = 0; cluster < k; cluster++) {
+            members[cluster] = new long[counts[cluster]];
+            counts[cluster] = 0;
+        }
+        for (int row = 0; row < assignment.length; row++) {
+            int cluster = assignment[row];
+            members[cluster][counts[cluster]++] = snapshot.ids[row];
+        }
+
+        List<String> names = new ArrayList<>();
+        List<long[]> playlistMembers = new ArrayList<>();
+        for (int cluster = 0; cluster < k; cluster++) {
+            if (members[cluster].length == 0) continue;
+            names.add(NAME_PREFIX + (names.size() + 1));
+            playlistMembers.add(members[cluster]);
+        }
+        database.playlistDao().replaceAutoPlaylists(names, playlistMembers);
+
+        Log.d(TAG, "Clustered " + snapshot.size() + " tracks into " + names.size() + " playlists in "
+                + iterations + " iterations, " + (clustered - start) / 1_000_000 + " ms clustering, "
+                + (System.nanoTime() - clustered) / 1_000_000 + " ms writing");
+    }
+
+    /**
+     * Adds every track to the playlist whose centroid is the most similar,
+     * the centroids are the normalized means of the current members.
+     */
+    private void assign(AppDatabase database, EmbeddingIndex index, List<Playlist> playlists, List<Long> trackIds) {
+        long start = System.nanoTime();
+        PlaylistDao dao = database.playlistDao();
+
+        List<float[]> centroids = new ArrayList<>(playlists.size());
+        for (Playlist playlist : playlists) {
+            centroids.add(centroidOf(index, dao.getPlaylistTrackIds(playlist.id)));
+        }
+
+        List<PlaylistTrackCrossRef> crossRefs = new ArrayList<>();
+        for (long trackId : trackIds) {
+            float[] vector = index.getVector(trackId);
+            if (vector == null) continue;
+
+            int best = -1;
+            float bestScore = -Float.MAX_VALUE;
+            for (int i = 0; i < centroids.size(); i++) {
+                float[] centroid = centroids.get(i);
+                if (centroid == null || centroid.length != vector.length) continue;
+
+                float score = dot(centroid, vector);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            if (best < 0) continue;
+
+            PlaylistTrackCrossRef crossRef = new PlaylistTrackCrossRef();
+            crossRef.playlistId = playlists.get(best).id;
+            crossRef.trackId = trackId;
+            crossRefs.add(crossRef);
+        }
+        dao.addTracksToPlaylist(crossRefs);
+
+        Log.d(TAG, "Assigned " + crossRefs.size() + " new tracks in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * @return The normalized mean of the vectors of the tracks, null if none of them has one
+     */
+    private static float[] centroidOf(EmbeddingIndex index, List<Long> trackIds) {
+        float[] centroid = null;
+        for (long trackId : trackIds) {
+            float[] vector = index.getVector(trackId);
+            if (vector == null) continue;
+            if (centroid == null) centroid = new float[vector.length];
+            if (vector.length != centroid.length) continue;
+
+            for (int i = 0; i < centroid.length; i++) {
+                centroid[i] += vector[i];
+            }
+        }
+        if (centroid == null) return null;
+
+        double norm = 0;
+        for (float value : centroid) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < centroid.length; i++) {
+                centroid[i] *= scale;
+            }
+        }
+        return centroid;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,505 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Data.AppDatabase;
+import com.jochengehtab.musicplayer.Data.TrackFeatures;
+import com.jochengehtab.musicplayer.Utility.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Process-wide in-memory copy of all track embeddings.
+ * <p>
+ * All vectors live in one contiguous {@code float[size * dimension]} array, row i belongs to track {@code ids[i]}.
+ * The index is loaded from the database once and afterward kept up to date with {@link #put} and {@link #remove},
+ * so recommendations never have to load or decode the stored embeddings again.
+ * <p>
+ * The stored embeddings are plain means of the YAMNet frames. Every row is scaled to unit length when it is
+ * written, so the dot product of two rows is their cosine similarity.
+ * <p>
+ * By default the rows are kept int8 quantized ({@link ScalarQuantizer}), a quarter of the float32 size.
+ * The query is quantized once per scan and every row is scored with an integer dot product.
+ * The exact vectors can be fetched through the {@link VectorLoader} to re-rank the best candidates.
+ */
+public final class EmbeddingIndex {
+    private static final String TAG = "EmbeddingIndex";
+    private static final int LOAD_PAGE_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Below this many rows splitting the scoring across cores costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int PARALLEL_CHUNK_ROWS = 1024;
+
+    // Scored for tracks without a row, below every real similarity
+    static final float NO_SCORE = -Float.MAX_VALUE;
+
+    private static final EmbeddingIndex INSTANCE = new EmbeddingIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongIntHashMap rowsById = new LongIntHashMap(INITIAL_CAPACITY);
+    // Either the float32 rows or the int8 codes with one scale per row are used
+    private float[] vectors = new float[0];
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private boolean quantized = true;
+    private VectorLoader fullPrecisionLoader;
+    private long[] ids = new long[0];
+    private int dimension = 0;
+    private int size = 0;
+    private boolean loaded = false;
+    private volatile long generation = 0;
+
+    // Package-private for tests, the app uses the shared instance
+    EmbeddingIndex() {
+    }
+
+    public static EmbeddingIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads all embeddings from the database, unless that already happened.
+     * Call this from a background thread.
+     */
+    public void ensureLoaded(AppDatabase database) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+
+            long start = System.nanoTime();
+            long lastId = -1;
+            List<TrackFeatures> page;
+            do {
+                page = database.trackDao().getEmbeddingsAfter(lastId, LOAD_PAGE_SIZE);
+                for (TrackFeatures features : page) {
+                    float[] vector = features.getStyleVector();
+                    if (vector != null) putLocked(features.trackId, vector);
+                    lastId = features.trackId;
+                }
+            } while (page.size() == LOAD_PAGE_SIZE);
+
+            loaded = true;
+            generation++;
+            Log.d(TAG, "Loaded " + size + " embeddings in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Switches between int8 and float32 rows. Changing it drops all rows, they get loaded again.
+     */
+    public void setQuantized(boolean quantized) {
+        lock.writeLock().lock();
+        try {
+            if (this.quantized == quantized) return;
+            this.quantized = quantized;
+            vectors = new float[0];
+            codes = new byte[0];
+            scales = new float[0];
+            ids = new long[0];
+            rowsById.clear();
+            size = 0;
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Sets where {@link #getFullPrecisionVector} reads the exact vectors of a quantized index from.
+     */
+    public void setFullPrecisionLoader(VectorLoader fullPrecisionLoader) {
+        this.fullPrecisionLoader = fullPrecisionLoader;
+    }
+
+    /**
+     * @return The exact vector of the track, or the stored one if there is no loader or the index is not quantized
+     */
+    public float[] getFullPrecisionVector(long trackId) {
+        VectorLoader loader = fullPrecisionLoader;
+        if (quantized && loader != null) {
+            float[] vector = loader.load(trackId);
+            if (vector != null) {
+                // Scaled like the rows, so both score the same
+                float inverseNorm = inverseNorm(vector);
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] *= inverseNorm;
+                }
+                return vector;
+            }
+        }
+        return getVector(trackId);
+    }
+
+    /**
+     * Drops all rows, the next {@link #ensureLoaded} reads them from the database again.
+     * Used after tracks got deleted.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            rowsById.clear();
+            size = 0;
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the embedding of a track or replaces its current one.
+     */
+    public void put(long trackId, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            putLocked(trackId, vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long trackId) {
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.remove(trackId);
+            if (row == LongIntHashMap.MISSING) return;
+
+            // Move the last row into the gap, the order of the rows does not matter
+            int last = size - 1;
+            if (row != last) {
+                if (quantized) {
+                    System.arraycopy(codes, last * dimension, codes, row * dimension, dimension);
+                    scales[row] = scales[last];
+                } else {
+                    System.arraycopy(vectors, last * dimension, vectors, row * dimension, dimension);
+                }
+                ids[row] = ids[last];
+                rowsById.put(ids[row], row);
+            }
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return A counter that changes whenever the index was loaded from the database again
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return A copy of the ids of all indexed tracks
+     */
+    public long[] getIds() {
+        lock.readLock().lock();
+        try {
+            return Arrays.copyOf(ids, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(long trackId) {
+        lock.readLock().lock();
+        try {
+            return rowsById.containsKey(trackId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return A copy of the embedding of the track, dequantized if the index is quantized, or null if it has none
+     */
+    public float[] getVector(long trackId) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(trackId);
+            if (row == LongIntHashMap.MISSING) return null;
+            if (quantized) {
+                float[] vector = new float[dimension];
+                ScalarQuantizer.dequantize(codes, row * dimension, scales[row], vector, dimension);
+                return vector;
+            }
+            return Arrays.copyOfRange(vectors, row * dimension, (row + 1) * dimension);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return A copy of all rows as int8 codes, a float32 index is quantized while copying.
+     * A quarter of the size of a float copy, so bulk jobs like the clustering can work without holding the lock.
+     */
+    public Snapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            byte[] snapshotCodes = new byte[size * dimension];
+            float[] snapshotScales = new float[size];
+            if (quantized) {
+                System.arraycopy(codes, 0, snapshotCodes, 0, size * dimension);
+                System.arraycopy(scales, 0, snapshotScales, 0, size);
+            } else {
+                for (int row = 0; row < size; row++) {
+                    snapshotScales[row] = ScalarQuantizer.quantize(vectors, row * dimension, dimension,
+                            snapshotCodes, row * dimension);
+                }
+            }
+            return new Snapshot(Arrays.copyOf(ids, size), snapshotCodes, snapshotScales, dimension);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Row i holds the codes {@code [i * dimension, (i + 1) * dimension)} of track {@code ids[i]}.
+     */
+    public static final class Snapshot {
+        public final long[] ids;
+        public final byte[] codes;
+        public final float[] scales;
+        public final int dimension;
+
+        Snapshot(long[] ids, byte[] codes, float[] scales, int dimension) {
+            this.ids = ids;
+            this.codes = codes;
+            this.scales = scales;
+            this.dimension = dimension;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    /**
+     * Calls the visitor with the dot product of the query and every row.
+     * The rows are normalized, so for a normalized query, e.g. from {@link #getVector}, it is the cosine similarity.
+     * Large indexes are scored on all cores first and visited afterward, the visitor always runs on the calling thread.
+     */
+    public void score(float[] query, ScoreVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            if (query.length != dimension) return;
+            PreparedQuery prepared = new PreparedQuery(query);
+
+            if (size < PARALLEL_THRESHOLD) {
+                for (int row = 0; row < size; row++) {
+                    visitor.visit(ids[row], scoreRow(prepared, row));
+                }
+                return;
+            }
+
+            float[] scores = new float[size];
+            ForkJoinPool.commonPool().invoke(new ScoreTask(prepared, scores, 0, size));
+            for (int row = 0; row < size; row++) {
+                visitor.visit(ids[row], scores[row]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Prepares a query for scoring single tracks with {@link #score(PreparedQuery, long)},
+     * e.g. while walking the {@link HnswIndex} graph.
+     *
+     * @return null if the query does not have the dimension of the rows
+     */
+    PreparedQuery prepare(float[] query) {
+        lock.readLock().lock();
+        try {
+            return (query.length == dimension) ? new PreparedQuery(query) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The dot product of the query and the row of the track, {@link #NO_SCORE} if the track has no row
+     */
+    float score(PreparedQuery query, long trackId) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(trackId);
+            if (row == LongIntHashMap.MISSING || query.quantized != quantized) return NO_SCORE;
+            return scoreRow(query, row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The dot product of the rows of both tracks, {@link #NO_SCORE} if one of them has no row
+     */
+    float similarity(long trackA, long trackB) {
+        lock.readLock().lock();
+        try {
+            int rowA = rowsById.get(trackA);
+            int rowB = rowsById.get(trackB);
+            if (rowA == LongIntHashMap.MISSING || rowB == LongIntHashMap.MISSING) return NO_SCORE;
+            if (quantized) {
+                int sum = ScalarQuantizer.dot(codes, rowA * dimension, codes, rowB * dimension, dimension);
+                return sum * scales[rowA] * scales[rowB];
+            }
+            float sum = 0f;
+            for (int i = 0; i < dimension; i++) {
+                sum += vectors[rowA * dimension + i] * vectors[rowB * dimension + i];
+            }
+            return sum;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public interface ScoreVisitor {
+        void visit(long trackId, float score);
+    }
+
+    public interface VectorLoader {
+        float[] load(long trackId);
+    }
+
+    /**
+     * The query in the representation of the rows, quantized only once per scan.
+     */
+    final class PreparedQuery {
+        final float[] vector;
+        final boolean quantized;
+        final byte[] codes;
+        final float scale;
+
+        PreparedQuery(float[] vector) {
+            this.vector = vector;
+            this.quantized = EmbeddingIndex.this.quantized;
+            if (quantized) {
+                this.codes = new byte[dimension];
+                this.scale = ScalarQuantizer.quantize(vector, 0, dimension, codes, 0);
+            } else {
+                this.codes = null;
+                this.scale = 1f;
+            }
+        }
+    }
+
+    private float scoreRow(PreparedQuery query, int row) {
+        if (quantized) {
+            int sum = ScalarQuantizer.dot(query.codes, 0, codes, row * dimension, dimension);
+            return sum * query.scale * scales[row];
+        }
+        return dot(query.vector, row);
+    }
+
+    private float dot(float[] query, int row) {
+        float[] data = vectors;
+        int offset = row * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * data[offset + i];
+        }
+        return sum;
+    }
+
+    private void putLocked(long trackId, float[] vector) {
+        if (dimension == 0 || size == 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            Log.w(TAG, "Ignoring embedding of track " + trackId + " with " + vector.length + " dimensions");
+            return;
+        }
+
+        int row = rowsById.get(trackId);
+        if (row == LongIntHashMap.MISSING) {
+            ensureCapacity(size + 1);
+            row = size++;
+            ids[row] = trackId;
+            rowsById.put(trackId, row);
+        }
+        float inverseNorm = inverseNorm(vector);
+        if (quantized) {
+            // Quantized when the embedding is written, scans only ever see the codes.
+            // The codes do not depend on the length of the vector, normalizing only changes the scale.
+            scales[row] = ScalarQuantizer.quantize(vector, 0, dimension, codes, row * dimension) * inverseNorm;
+        } else {
+            int offset = row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                vectors[offset + i] = vector[i] * inverseNorm;
+            }
+        }
+    }
+
+    /**
+     * @return 1 / |vector|, or 0 for the zero vector, which then scores 0 against everything
+     */
+    private static float inverseNorm(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        return (norm > 0) ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+    }
+
+    private void ensureCapacity(int rows) {
+        int rowCapacity = quantized ? codes.length : vectors.length;
+        if (ids.length >= rows && rowCapacity >= rows * dimension) return;
+
+        int capacity = Math.max(INITIAL_CAPACITY, Math.max(rows, ids.length + (ids.length >> 1)));
+        ids = Arrays.copyOf(ids, capacity);
+        if (quantized) {
+            codes = Arrays.copyOf(codes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        } else {
+            vectors = Arrays.copyOf(vectors, capacity * dimension);
+        }
+    }
+
+    /**
+     * Scores a range of rows, split in halves until a range is small enough.
+     */
+    private final class ScoreTask extends RecursiveAction {
+        private final PreparedQuery query;
+        private final float[] scores;
+        private final int from;
+        private final int to;
+
+        ScoreTask(PreparedQuery query, float[] scores, int from, int to) {
+            this.query = query;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK_ROWS) {
+                for (int row = from; row < to; row++) {
+                    scores[row] = scoreRow(query, row);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ScoreTask(query, scores, from, middle), new ScoreTask(query, scores, middle, to));
+        }
+    }
+}
@@ -0,0 +1,784 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest neighbour index over the style embeddings (HNSW, Malkov and Yashunin).
+ * <p>
+ * Every node is linked to its most similar nodes on layer 0 and on each higher layer it was drawn for.
+ * A search greedily walks down from the sparse top layer and then explores layer 0 with a candidate list of size ef.
+ * <p>
+ * The graph only holds the links, every similarity is computed from the int8 rows of the {@link EmbeddingIndex},
+ * so the embeddings are not kept in memory twice. The links of a deleted track are handed to the nodes that pointed
+ * to it, its node stays behind as an unreachable tombstone until the graph is rebuilt once too many of them pile up.
+ * <p>
+ * The graph is kept in sync with the {@link EmbeddingIndex} and saved to a file, so it is not rebuilt at startup.
+ * It is only built for libraries of {@link #MIN_TRACKS} tracks or more, smaller ones are scanned exactly.
+ */
+public final class HnswIndex {
+    private static final String TAG = "HnswIndex";
+    private static final int FILE_MAGIC = 0x484E5357; // "HNSW"
+    // Version 1 also stored the vectors and linked by raw dot products
+    private static final int FILE_VERSION = 2;
+
+    // Below this many tracks the exact scan is fast enough and the graph is not worth its memory
+    public static final int MIN_TRACKS = 5000;
+
+    // Links per node on the upper layers, layer 0 gets twice as many
+    private static final int M = 16;
+    private static final int MAX_M0 = 2 * M;
+    private static final int EF_CONSTRUCTION = 100;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    // Rebuild the graph once this share of the nodes is deleted
+    private static final float MAX_DELETED_RATIO = 0.25f;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final HnswIndex INSTANCE = new HnswIndex(EmbeddingIndex.getInstance());
+
+    private final EmbeddingIndex exact;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean syncQueued = new AtomicBoolean(false);
+    private final double levelMultiplier = 1.0 / Math.log(M);
+    private final Random levelRandom = new Random(42);
+
+    // Node data, indexed by node number
+    private long[] trackIds = new long[0];
+    private int[] levels = new int[0];
+    private boolean[] deleted = new boolean[0];
+    // links[node][level][0] is the link count, the links follow
+    private int[][][] links = new int[0][][];
+
+    private final Map<Long, Integer> nodesById = new HashMap<>();
+    private int nodeCount = 0;
+    private int deletedCount = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int efSearch = DEFAULT_EF_SEARCH;
+
+    private volatile boolean ready = false;
+    private boolean dirty = false;
+    // Set when the graph was built from scratch, reported once by the next sync
+    private volatile boolean rebuilt = false;
+    private volatile long syncedGeneration = -1;
+    private File file;
+
+    // Package-private for tests, the app uses the shared instance
+    HnswIndex(EmbeddingIndex exact) {
+        this.exact = exact;
+    }
+
+    public static HnswIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Whether the graph was loaded and can be searched
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    /**
+     * @return The number of searchable tracks
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodesById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the graph from the file on a background thread and brings it up to date with the exact index.
+     * Does nothing if the exact index did not change since the last sync. The graph is saved afterward.
+     *
+     * @param onRebuilt Optional, runs on the background thread after a sync that built the graph from scratch,
+     *                  not after syncs that only applied a few changes
+     */
+    public void requestSync(File file, Runnable onRebuilt) {
+        if (ready && syncedGeneration == exact.getGeneration()) return;
+        if (!syncQueued.compareAndSet(false, true)) return;
+
+        syncExecutor.execute(() -> {
+            try {
+                sync(file);
+                if (rebuilt) {
+                    rebuilt = false;
+                    if (onRebuilt != null) onRebuilt.run();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Syncing the ANN index failed", e);
+            } finally {
+                syncQueued.set(false);
+            }
+        });
+    }
+
+    private void sync(File file) {
+        long start = System.nanoTime();
+        if (this.file == null) {
+            this.file = file;
+            load(file);
+        }
+
+        long generation = exact.getGeneration();
+        if (size() == 0) rebuilt = true;
+        int changes = reconcile();
+        ready = true;
+        // Tracks analyzed during the first pass were not added directly, because the graph was not ready yet
+        changes += reconcile();
+
+        syncedGeneration = generation;
+        saveIfDirty();
+        Log.d(TAG, "Synced " + size() + " tracks (" + changes + " changes) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Inserts what the graph is missing and removes what the database no longer has.
+     *
+     * @return The number of inserted and removed tracks
+     */
+    private int reconcile() {
+        long[] exactIds = exact.getIds();
+        LongHashSet live = new LongHashSet(exactIds.length);
+        int changes = 0;
+        for (long trackId : exactIds) {
+            live.add(trackId);
+            if (contains(trackId)) continue;
+
+            add(trackId);
+            changes++;
+        }
+
+        for (long trackId : getTrackIds()) {
+            if (!live.contains(trackId)) {
+                remove(trackId);
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Writes the graph to its file if it changed since the last save.
+     */
+    public synchronized void saveIfDirty() {
+        lock.readLock().lock();
+        try {
+            if (!dirty || file == null) return;
+            save(file);
+            dirty = false;
+        } catch (IOException e) {
+            Log.e(TAG, "Saving the ANN index failed", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Links the track into the graph with the embedding it has in the exact index,
+     * so call this after {@link EmbeddingIndex#put}. A track that is already linked is linked again.
+     */
+    public void add(long trackId) {
+        lock.writeLock().lock();
+        try {
+            if (nodesById.containsKey(trackId)) removeLocked(trackId);
+            float[] vector = exact.getVector(trackId);
+            if (vector == null) return;
+            insertLocked(trackId, vector);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long trackId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(trackId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Calls the visitor with the up to max(ef, k) most similar tracks, most similar first.
+     * Returning more than k results leaves room for filtering, e.g. by the play history.
+     */
+    public void search(float[] query, int k, EmbeddingIndex.ScoreVisitor visitor) {
+        search(query, k, efSearch, visitor);
+    }
+
+    public void search(float[] query, int k, int ef, EmbeddingIndex.ScoreVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) return;
+            EmbeddingIndex.PreparedQuery prepared = exact.prepare(query);
+            if (prepared == null) return;
+
+            int current = greedyDescend(prepared, entryPoint, maxLevel, 0);
+            ScoreHeap results = searchLayer(prepared, current, Math.max(ef, k), 0);
+
+            // The heap pops the least similar first, so collect and visit backward
+            int[] nodes = new int[results.size()];
+            float[] scores = new float[results.size()];
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                scores[i] = results.topScore();
+                nodes[i] = results.pop();
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                // A track the exact index already dropped is removed by the next sync
+                if (!deleted[nodes[i]] && scores[i] != EmbeddingIndex.NO_SCORE) {
+                    visitor.visit(trackIds[nodes[i]], scores[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compares the graph search against the exact scan on random tracks of the library.
+     *
+     * @return One line per ef value with recall@k and the average latency of both searches
+     */
+    public String measureRecall(int queries, int k, int[] efValues) {
+        long[] ids = exact.getIds();
+        if (ids.length <= k) return "Library too small for a recall report";
+
+        Random random = new Random(7);
+        float[][] queryVectors = new float[queries][];
+        long[][] truth = new long[queries][];
+        long exactNanos = 0;
+        TopKSelector selector = new TopKSelector(k);
+
+        for (int q = 0; q < queries; q++) {
+            queryVectors[q] = exact.getVector(ids[random.nextInt(ids.length)]);
+            selector.clear();
+            long start = System.nanoTime();
+            exact.score(queryVectors[q], selector::offer);
+            exactNanos += System.nanoTime() - start;
+
+            truth[q] = new long[selector.size()];
+            for (int i = 0; i < selector.size(); i++) {
+                truth[q][i] = selector.getId(i);
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "Exact scan: %d tracks, %.3f ms/query%n",
+                ids.length, exactNanos / 1e6 / queries));
+
+        for (int ef : efValues) {
+            long annNanos = 0;
+            int hits = 0;
+            int total = 0;
+            for (int q = 0; q < queries; q++) {
+                LongHashSet found = new LongHashSet(k);
+                int[] taken = {0};
+                long start = System.nanoTime();
+                search(queryVectors[q], k, ef, (trackId, score) -> {
+                    if (taken[0]++ < k) found.add(trackId);
+                });
+                annNanos += System.nanoTime() - start;
+
+                for (long trackId : truth[q]) {
+                    if (found.contains(trackId)) hits++;
+                }
+                total += truth[q].length;
+            }
+            report.append(String.format(Locale.US, "HNSW ef=%d: recall@%d %.3f, %.3f ms/query%n",
+                    ef, k, (float) hits / total, annNanos / 1e6 / queries));
+        }
+        return report.toString();
+    }
+
+    private boolean contains(long trackId) {
+        lock.readLock().lock();
+        try {
+            return nodesById.containsKey(trackId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] getTrackIds() {
+        lock.readLock().lock();
+        try {
+            long[] ids = new long[nodesById.size()];
+            int i = 0;
+            for (long trackId : nodesById.keySet()) {
+                ids[i++] = trackId;
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(long trackId) {
+        Integer node = nodesById.remove(trackId);
+        if (node == null) return;
+
+        deleted[node] = true;
+        deletedCount++;
+        dirty = true;
+
+        if (deletedCount > nodeCount * MAX_DELETED_RATIO) {
+            rebuildLocked();
+        } else {
+            unlinkLocked(node);
+        }
+    }
+
+    /**
+     * Removes every link to the node and offers its own links to the nodes that pointed to it instead,
+     * so the area of the graph it connected stays reachable. Its vector may already be gone from the exact index,
+     * so the node itself is never scored again.
+     */
+    private void unlinkLocked(int removed) {
+        for (int l = 0; l <= levels[removed]; l++) {
+            int[] removedLinks = links[removed][l];
+            for (int node = 0; node < nodeCount; node++) {
+                if (deleted[node] || levels[node] < l) continue;
+                int[] nodeLinks = links[node][l];
+                int position = indexOf(nodeLinks, removed);
+                if (position < 0) continue;
+
+                nodeLinks[position] = nodeLinks[nodeLinks[0]];
+                nodeLinks[0]--;
+                for (int i = 1; i <= removedLinks[0]; i++) {
+                    int candidate = removedLinks[i];
+                    if (candidate != node && !deleted[candidate] && indexOf(nodeLinks, candidate) < 0) {
+                        connect(node, candidate, l);
+                    }
+                }
+            }
+            removedLinks[0] = 0;
+        }
+
+        if (removed == entryPoint) {
+            // The live node on the highest layer takes over
+            entryPoint = -1;
+            maxLevel = -1;
+            for (int node = 0; node < nodeCount; node++) {
+                if (!deleted[node] && levels[node] > maxLevel) {
+                    entryPoint = node;
+                    maxLevel = levels[node];
+                }
+            }
+        }
+    }
+
+    private static int indexOf(int[] nodeLinks, int node) {
+        for (int i = 1; i <= nodeLinks[0]; i++) {
+            if (nodeLinks[i] == node) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts all live nodes into a fresh graph, which drops the tombstones.
+     * Tracks the exact index no longer has are left out, the next sync would remove them anyway.
+     */
+    private void rebuildLocked() {
+        long start = System.nanoTime();
+        long[] oldTrackIds = trackIds;
+        boolean[] oldDeleted = deleted;
+        int oldCount = nodeCount;
+
+        trackIds = new long[0];
+        levels = new int[0];
+        deleted = new boolean[0];
+        links = new int[0][][];
+        nodesById.clear();
+        nodeCount = 0;
+        deletedCount = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+
+        for (int node = 0; node < oldCount; node++) {
+            if (oldDeleted[node]) continue;
+            float[] vector = exact.getVector(oldTrackIds[node]);
+            if (vector != null) insertLocked(oldTrackIds[node], vector);
+        }
+        rebuilt = true;
+        Log.d(TAG, "Rebuilt graph with " + nodeCount + " nodes in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void insertLocked(long trackId, float[] vector) {
+        EmbeddingIndex.PreparedQuery query = exact.prepare(vector);
+        if (query == null) return;
+        int level = (int) (-Math.log(1.0 - levelRandom.nextDouble()) * levelMultiplier);
+        int node = allocateNode(trackId, level);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = greedyDescend(query, entryPoint, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            ScoreHeap candidates = searchLayer(query, current, EF_CONSTRUCTION, l);
+            int[] neighbours = selectNeighbours(candidates, M);
+
+            for (int neighbour : neighbours) {
+                links[node][l][++links[node][l][0]] = neighbour;
+                connect(neighbour, node, l);
+            }
+            // The most similar node found on this layer is the entry into the next one
+            current = neighbours.length > 0 ? neighbours[0] : current;
+        }
+
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    private int allocateNode(long trackId, int level) {
+        if (nodeCount == trackIds.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, trackIds.length + (trackIds.length >> 1));
+            trackIds = Arrays.copyOf(trackIds, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            deleted = Arrays.copyOf(deleted, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+
+        int node = nodeCount++;
+        trackIds[node] = trackId;
+        levels[node] = level;
+        deleted[node] = false;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxLinks(l) + 1];
+        }
+        nodesById.put(trackId, node);
+        return node;
+    }
+
+    /**
+     * Adds the link from node to target, pruning the links of node if it has too many.
+     */
+    private void connect(int node, int target, int level) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+        if (count < maxLinks(level)) {
+            nodeLinks[count + 1] = target;
+            nodeLinks[0] = count + 1;
+            return;
+        }
+
+        // Full, keep the best mix of the current links and the new one
+        ScoreHeap candidates = new ScoreHeap(count + 1, true);
+        candidates.push(target, dotNodes(node, target));
+        for (int i = 1; i <= count; i++) {
+            candidates.push(nodeLinks[i], dotNodes(node, nodeLinks[i]));
+        }
+        int[] kept = selectNeighbours(candidates, maxLinks(level));
+        nodeLinks[0] = kept.length;
+        System.arraycopy(kept, 0, nodeLinks, 1, kept.length);
+    }
+
+    /**
+     * The neighbour selection heuristic of the paper: a candidate is only linked if it is more similar to the base
+     * than to every neighbour picked so far, which keeps links pointing in different directions.
+     * Remaining slots are filled with the best skipped candidates.
+     *
+     * @param candidates Consumed, pops the least similar first
+     * @return The neighbours, most similar first
+     */
+    private int[] selectNeighbours(ScoreHeap candidates, int max) {
+        int size = candidates.size();
+        int[] sorted = new int[size];
+        float[] scores = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            scores[i] = candidates.topScore();
+            sorted[i] = candidates.pop();
+        }
+
+        int[] selected = new int[Math.min(max, size)];
+        boolean[] taken = new boolean[size];
+        int count = 0;
+        for (int i = 0; i < size && count < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (dotNodes(selected[j], sorted[i]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = sorted[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < size && count < selected.length; i++) {
+            if (!taken[i]) selected[count++] = sorted[i];
+        }
+        return selected;
+    }
+
+    /**
+     * Walks from the entry point to the most similar node, layer by layer, stopping above {@code toLevel}.
+     */
+    private int greedyDescend(EmbeddingIndex.PreparedQuery query, int entry, int fromLevel, int toLevel) {
+        int current = entry;
+        float currentScore = dot(query, current);
+        for (int l = fromLevel; l >= toLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] nodeLinks = links[current][l];
+                for (int i = 1; i <= nodeLinks[0]; i++) {
+                    float score = dot(query, nodeLinks[i]);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = nodeLinks[i];
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search on one layer.
+     *
+     * @return The up to ef most similar nodes found, including deleted ones
+     */
+    private ScoreHeap searchLayer(EmbeddingIndex.PreparedQuery query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(nodeCount);
+        ScoreHeap candidates = new ScoreHeap(ef, false);
+        ScoreHeap results = new ScoreHeap(ef, true);
+
+        float entryScore = dot(query, entry);
+        visited.set(entry);
+        candidates.push(entry, entryScore);
+        results.push(entry, entryScore);
+
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            int candidate = candidates.pop();
+            // Every remaining candidate is worse than the worst result
+            if (results.size() >= ef && candidateScore < results.topScore()) break;
+
+            int[] nodeLinks = links[candidate][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                int neighbour = nodeLinks[i];
+                if (visited.get(neighbour)) continue;
+                visited.set(neighbour);
+
+                float score = dot(query, neighbour);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    private static int maxLinks(int level) {
+        return level == 0 ? MAX_M0 : M;
+    }
+
+    private float dotNodes(int a, int b) {
+        return exact.similarity(trackIds[a], trackIds[b]);
+    }
+
+    private float dot(EmbeddingIndex.PreparedQuery query, int node) {
+        return exact.score(query, trackIds[node]);
+    }
+
+    private void save(File target) throws IOException {
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(nodeCount);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+
+            for (int node = 0; node < nodeCount; node++) {
+                out.writeLong(trackIds[node]);
+                out.writeBoolean(deleted[node]);
+                out.writeInt(levels[node]);
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] nodeLinks = links[node][l];
+                    out.writeInt(nodeLinks[0]);
+                    for (int i = 1; i <= nodeLinks[0]; i++) {
+                        out.writeInt(nodeLinks[i]);
+                    }
+                }
+            }
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot move " + temp + " to " + target);
+        }
+    }
+
+    private void load(File source) {
+        if (!source.exists()) return;
+
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(source), 64 * 1024))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring ANN index file of an unknown format");
+                return;
+            }
+            int count = in.readInt();
+            int fileEntryPoint = in.readInt();
+            int fileMaxLevel = in.readInt();
+
+            long[] fileTrackIds = new long[count];
+            int[] fileLevels = new int[count];
+            boolean[] fileDeleted = new boolean[count];
+            int[][][] fileLinks = new int[count][][];
+
+            for (int node = 0; node < count; node++) {
+                fileTrackIds[node] = in.readLong();
+                fileDeleted[node] = in.readBoolean();
+                fileLevels[node] = in.readInt();
+                fileLinks[node] = new int[fileLevels[node] + 1][];
+                for (int l = 0; l <= fileLevels[node]; l++) {
+                    int linkCount = in.readInt();
+                    int[] nodeLinks = new int[maxLinks(l) + 1];
+                    nodeLinks[0] = linkCount;
+                    for (int i = 1; i <= linkCount; i++) {
+                        nodeLinks[i] = in.readInt();
+                    }
+                    fileLinks[node][l] = nodeLinks;
+                }
+            }
+
+            nodeCount = count;
+            entryPoint = fileEntryPoint;
+            maxLevel = fileMaxLevel;
+            trackIds = fileTrackIds;
+            levels = fileLevels;
+            deleted = fileDeleted;
+            links = fileLinks;
+            nodesById.clear();
+            deletedCount = 0;
+            for (int node = 0; node < count; node++) {
+                if (fileDeleted[node]) {
+                    deletedCount++;
+                } else {
+                    nodesById.put(fileTrackIds[node], node);
+                }
+            }
+            Log.d(TAG, "Loaded " + nodesById.size() + " tracks from " + source);
+        } catch (IOException e) {
+            // Starts empty, the sync inserts everything again
+            Log.w(TAG, "Could not read the ANN index file", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Binary heap of nodes ordered by score, popping the lowest first if {@code minHeap}, else the highest.
+     */
+    private static final class ScoreHeap {
+        private final boolean minHeap;
+        private int[] nodes;
+        private float[] scores;
+        private int size = 0;
+
+        ScoreHeap(int capacity, boolean minHeap) {
+            this.minHeap = minHeap;
+            this.nodes = new int[Math.max(4, capacity + 1)];
+            this.scores = new float[nodes.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            nodes[i] = node;
+            scores[i] = score;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(i, parent)) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            nodes[0] = nodes[size];
+            scores[0] = scores[size];
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) break;
+                int child = (left + 1 < size && before(left + 1, left)) ? left + 1 : left;
+                if (!before(child, i)) break;
+                swap(i, child);
+                i = child;
+            }
+            return top;
+        }
+
+        private boolean before(int a, int b) {
+            return minHeap ? scores[a] < scores[b] : scores[a] > scores[b];
+        }
+
+        private void swap(int a, int b) {
+            int node = nodes[a];
+            nodes[a] = nodes[b];
+            nodes[b] = node;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.jochengehtab.musicplayer.Music;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Spherical k-means over the int8 rows of an {@link EmbeddingIndex.Snapshot}.
+ * <p>
+ * Every row is scaled to unit length, so a row belongs to the centroid with the highest dot product and every
+ * centroid is the normalized mean of its rows. The scaling is folded into one factor per row that turns its codes
+ * into the unit vector, the snapshot may hold rows of any length.
+ * <p>
+ * The centroids start with k-means++ seeding. Both the seeding distances and the assignment step are split
+ * across all cores, each chunk sums up its own rows, so the update step only has to merge one partial sum per chunk.
+ */
+public final class KMeans {
+    private static final int CHUNK_ROWS = 1024;
+
+    // Stop once fewer than this share of the rows moved to another cluster
+    private static final float CONVERGED_FRACTION = 0.001f;
+
+    private final EmbeddingIndex.Snapshot data;
+    private final int k;
+    private final int dimension;
+    private final float[] centroids;
+    private final int[] assignment;
+    // code * unitScales[row] is the row scaled to unit length
+    private final float[] unitScales;
+
+    public KMeans(EmbeddingIndex.Snapshot data, int k) {
+        this.data = data;
+        this.k = Math.min(k, data.size());
+        this.dimension = data.dimension;
+        this.centroids = new float[this.k * dimension];
+        this.assignment = new int[data.size()];
+        Arrays.fill(assignment, -1);
+        this.unitScales = new float[data.size()];
+        for (int row = 0; row < data.size(); row++) {
+            unitScales[row] = unitScale(row);
+        }
+    }
+
+    /**
+     * Runs until the assignment is stable or the iterations are used up.
+     *
+     * @return The number of iterations that were run
+     */
+    public int run(int maxIterations, long seed) {
+        if (k == 0) return 0;
+        seed(new Random(seed));
+
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            Partial result = ForkJoinPool.commonPool().invoke(new AssignTask(0, data.size()));
+            updateCentroids(result);
+            if (result.changed <= data.size() * CONVERGED_FRACTION) break;
+        }
+        return iteration;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return The cluster of every row of the snapshot
+     */
+    public int[] getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * @return The normalized centroid of the cluster
+     */
+    public float[] getCentroid(int cluster) {
+        return Arrays.copyOfRange(centroids, cluster * dimension, (cluster + 1) * dimension);
+    }
+
+    /**
+     * k-means++: every further centroid is a row picked with a probability proportional to its squared
+     * distance to the nearest centroid so far. For unit vectors that distance is 2 - 2 * dot.
+     */
+    private void seed(Random random) {
+        int rows = data.size();
+        float[] distances = new float[rows];
+        Arrays.fill(distances, Float.MAX_VALUE);
+
+        int row = random.nextInt(rows);
+        for (int cluster = 0; cluster < k; cluster++) {
+            setCentroidToRow(cluster, row);
+            if (cluster == k - 1) break;
+
+            ForkJoinPool.commonPool().invoke(new DistanceTask(cluster, distances, 0, rows));
+
+            double total = 0;
+            for (float distance : distances) {
+                total += distance;
+            }
+            // All remaining rows equal a centroid, any row will do
+            if (total <= 0) {
+                row = random.nextInt(rows);
+                continue;
+            }
+
+            double target = random.nextDouble() * total;
+            row = rows - 1;
+            for (int i = 0; i < rows; i++) {
+                target -= distances[i];
+                if (target <= 0) {
+                    row = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void setCentroidToRow(int cluster, int row) {
+        float scale = unitScales[row];
+        int offset = row * dimension;
+        for (int d = 0; d < dimension; d++) {
+            centroids[cluster * dimension + d] = data.codes[offset + d] * scale;
+        }
+        normalize(centroids, cluster * dimension);
+    }
+
+    private void updateCentroids(Partial result) {
+        for (int cluster = 0; cluster < k; cluster++) {
+            // An empty cluster keeps its old centroid
+            if (result.counts[cluster] == 0) continue;
+
+            System.arraycopy(result.sums, cluster * dimension, centroids, cluster * dimension, dimension);
+            normalize(centroids, cluster * dimension);
+        }
+    }
+
+    private void normalize(float[] vectors, int offset) {
+        double norm = 0;
+        for (int d = 0; d < dimension; d++) {
+            norm += vectors[offset + d] * vectors[offset + d];
+        }
+        if (norm == 0) return;
+
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int d = 0; d < dimension; d++) {
+            vectors[offset + d] *= scale;
+        }
+    }
+
+    /**
+     * The scale of the row is irrelevant, the codes alone determine the direction.
+     *
+     * @return 1 / |codes|, or 0 for the zero row, which then has the same distance to every centroid
+     */
+    private float unitScale(int row) {
+        int offset = row * dimension;
+        long sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            int code = data.codes[offset + d];
+            sum += code * code;
+        }
+        return (sum > 0) ? (float) (1.0 / Math.sqrt(sum)) : 0f;
+    }
+
+    /**
+     * @return The cosine similarity of the centroid and the row
+     */
+    private float dot(int cluster, int row) {
+        int centroidOffset = cluster * dimension;
+        int rowOffset = row * dimension;
+        float sum = 0f;
+        for (int d = 0; d < dimension; d++) {
+            sum += centroids[centroidOffset + d] * data.codes[rowOffset + d];
+        }
+        return sum * unitScales[row];
+    }
+
+    /**
+     * The sums and sizes of the clusters of a range of rows.
+     */
+    private final class Partial {
+        final float[] sums = new float[k * dimension];
+        final int[] counts = new int[k];
+        int changed = 0;
+
+        void merge(Partial other) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+            }
+            for (int i = 0; i < k; i++) {
+                counts[i] += other.counts[i];
+            }
+            changed += other.changed;
+        }
+    }
+
+    /**
+     * Assigns a range of rows to their nearest centroid and sums them up per cluster.
+     */
+    private final class AssignTask extends RecursiveTask<Partial> {
+        private final int from;
+        private final int to;
+
+        AssignTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > CHUNK_ROWS) {
+                int middle = (from + to) >>> 1;
+                AssignTask right = new AssignTask(middle, to);
+                right.fork();
+                Partial result = new AssignTask(from, middle).compute();
+                result.merge(right.join());
+                return result;
+            }
+
+            Partial result = new Partial();
+            for (int row = from; row < to; row++) {
+                int best = 0;
+                float bestScore = -Float.MAX_VALUE;
+                for (int cluster = 0; cluster < k; cluster++) {
+                    float score = dot(cluster, row);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = cluster;
+                    }
+                }
+
+                if (assignment[row] != best) result.changed++;
+                assignment[row] = best;
+                result.counts[best]++;
+
+                float scale = unitScales[row];
+                int rowOffset = row * dimension;
+                int sumOffset = best * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    result.sums[sumOffset + d] += data.codes[rowOffset + d] * scale;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Lowers the seeding distance of a range of rows to the distance to the newest centroid.
+     */
+    private final class DistanceTask extends RecursiveAction {
+        private final int cluster;
+        private final float[] distances;
+        private final int from;
+        private final int to;
+
+        DistanceTask(int cluster, float[] distances, int from, int to) {
+            this.cluster = cluster;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_ROWS) {
+                for (int row = from; row < to; row++) {
+                    float distance = Math.max(0f, 2f - 2f * dot(cluster, row));
+                    distances[row] = Math.min(distances[row], distance);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DistanceTask(cluster, distances, from, middle),
+                    new DistanceTask(cluster, distances, middle, to));
+        }
+    }
+}
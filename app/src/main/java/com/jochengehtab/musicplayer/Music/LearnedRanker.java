@@ -0,0 +1,181 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.AudioClassifier.ModelStore;
+
+import org.pytorch.executorch.EValue;
+import org.pytorch.executorch.Module;
+import org.pytorch.executorch.Tensor;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Second recommendation stage, scores the shortlist of the cosine scan with the bundled ExecuTorch model.
+ * <p>
+ * The query and the candidates go through the model in batched forward calls of a fixed {@link #BATCH_ROWS} rows.
+ * Row 0 is the query and unused rows repeat it, so the module always sees the same input shape and
+ * a shortlist of up to {@code BATCH_ROWS - 1} candidates needs a single call.
+ * The model maps a style embedding to a normalized vector, so the score of a candidate is the dot product
+ * of its output row with the one of the query. A model with a single output column scores the rows directly.
+ * <p>
+ * The module is loaded on first use and kept. If it is missing, fails or is slower than the latency budget,
+ * the ranker turns itself off and the engine keeps the cosine scores.
+ */
+public final class LearnedRanker {
+    private static final String TAG = "LearnedRanker";
+    public static final String MODEL = "music_recommender.pte";
+
+    // The next song is picked while the previous one ends, a longer forward call is noticeable
+    private static final long LATENCY_BUDGET_MS = 50;
+
+    // The first calls pay for the lazy initialization of the module and are not held against the budget
+    private static final int WARMUP_CALLS = 2;
+
+    private final Context context;
+    private Module module;
+    private boolean disabled = false;
+    private int calls = 0;
+    private long lastLoadNanos = 0;
+    private long lastForwardNanos = 0;
+
+    // Rows of every forward call, the query plus up to BATCH_ROWS - 1 candidates
+    static final int BATCH_ROWS = 32;
+
+    // Input tensor, reallocated only when the dimension changes
+    private FloatBuffer input;
+    private EValue[] inputs;
+    private int inputDimension = 0;
+
+    public LearnedRanker(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * @return false once the model turned out to be missing, broken or too slow
+     */
+    public synchronized boolean isAvailable() {
+        return !disabled;
+    }
+
+    /**
+     * @return How long loading the module took, 0 if it is not loaded
+     */
+    public synchronized long getLastLoadNanos() {
+        return lastLoadNanos;
+    }
+
+    /**
+     * @return How long the forward calls of the last {@link #score} took together
+     */
+    public synchronized long getLastForwardNanos() {
+        return lastForwardNanos;
+    }
+
+    /**
+     * Scores all candidates against the query, in one forward call per {@code BATCH_ROWS - 1} candidates.
+     *
+     * @param candidates The first {@code count} rows are scored, all with the dimension of the query
+     * @param scores     Receives the score of every candidate
+     * @return false if the model is not available, {@code scores} must not be used then
+     */
+    public synchronized boolean score(float[] query, float[][] candidates, int count, float[] scores) {
+        if (disabled || count == 0 || !ensureLoaded()) return false;
+
+        prepareInput(query.length);
+        long start = System.nanoTime();
+        for (int first = 0; first < count; first += BATCH_ROWS - 1) {
+            int chunk = Math.min(BATCH_ROWS - 1, count - first);
+            if (!forward(query, candidates, first, chunk, scores)) return false;
+        }
+        lastForwardNanos = System.nanoTime() - start;
+
+        if (++calls > WARMUP_CALLS && lastForwardNanos > LATENCY_BUDGET_MS * 1_000_000) {
+            Log.w(TAG, "Forward call took " + lastForwardNanos / 1_000_000 + " ms, over the budget of "
+                    + LATENCY_BUDGET_MS + " ms, using the cosine scores from now on");
+            disabled = true;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the native memory of the module, the next {@link #score} loads it again.
+     */
+    public synchronized void close() {
+        if (module == null) return;
+        module.destroy();
+        module = null;
+    }
+
+    private boolean ensureLoaded() {
+        if (module != null) return true;
+
+        long start = System.nanoTime();
+        try {
+            module = Module.load(ModelStore.extractAsset(context, MODEL));
+        } catch (Exception e) {
+            Log.w(TAG, "Recommender model not available, using the cosine scores", e);
+            disabled = true;
+            return false;
+        }
+        lastLoadNanos = System.nanoTime() - start;
+        Log.d(TAG, "Loaded " + MODEL + " in " + lastLoadNanos / 1_000_000 + " ms");
+        return true;
+    }
+
+    /**
+     * Runs one forward call for the candidates from {@code first} on and writes their scores.
+     *
+     * @return false if the model failed, it is disabled then
+     */
+    private boolean forward(float[] query, float[][] candidates, int first, int chunk, float[] scores) {
+        input.clear();
+        input.put(query);
+        for (int i = 0; i < chunk; i++) {
+            input.put(candidates[first + i]);
+        }
+        for (int i = chunk + 1; i < BATCH_ROWS; i++) {
+            input.put(query);
+        }
+
+        float[] output;
+        try {
+            EValue[] outputs = module.forward(inputs);
+            output = outputs[0].toTensor().getDataAsFloatArray();
+        } catch (Exception e) {
+            Log.e(TAG, "Recommender inference failed, using the cosine scores from now on", e);
+            disabled = true;
+            return false;
+        }
+
+        int width = output.length / BATCH_ROWS;
+        if (width == 0 || width * BATCH_ROWS != output.length) {
+            Log.e(TAG, "Unexpected output size " + output.length + " for " + BATCH_ROWS + " rows");
+            disabled = true;
+            return false;
+        }
+
+        for (int i = 0; i < chunk; i++) {
+            int offset = (i + 1) * width;
+            scores[first + i] = (width == 1) ? output[offset] : dot(output, 0, output, offset, width);
+        }
+        return true;
+    }
+
+    private void prepareInput(int dimension) {
+        if (dimension == inputDimension) return;
+
+        input = Tensor.allocateFloatBuffer(BATCH_ROWS * dimension);
+        inputs = new EValue[]{EValue.from(Tensor.fromBlob(input, new long[]{BATCH_ROWS, dimension}))};
+        inputDimension = dimension;
+    }
+
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
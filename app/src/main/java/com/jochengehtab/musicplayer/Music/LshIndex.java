@@ -0,0 +1,350 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Random hyperplane locality-sensitive hashing over the style embeddings, used to find near-duplicate tracks
+ * like the same song in several folders, re-encodes or remasters.
+ * <p>
+ * Every table hashes a vector to the signs of its dot products with {@link #BITS} random hyperplanes.
+ * Two vectors at angle θ get the same bit with probability 1 - θ / π, so near-duplicates almost always share
+ * a bucket in at least one table while unrelated tracks rarely do. Only tracks that share a bucket are compared,
+ * instead of every pair of the library. The vectors are scaled to unit length and centered on the library mean
+ * first, because the embeddings all point into a similar direction and would otherwise crowd a few buckets.
+ * Only the direction of an embedding matters, every comparison divides by both lengths.
+ */
+public final class LshIndex {
+    private static final String TAG = "LshIndex";
+
+    private static final int TABLES = 8;
+    private static final int BITS = 16;
+
+    // Cosine similarity above which two tracks count as the same song
+    public static final float DEFAULT_THRESHOLD = 0.97f;
+
+    // Buckets this full hold unrelated tracks, comparing all their pairs would be quadratic again
+    private static final int MAX_BUCKET_SIZE = 256;
+
+    // Printed by the debug report, the rest is only counted
+    private static final int MAX_LOGGED_CLUSTERS = 20;
+
+    private static final LshIndex INSTANCE = new LshIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Key: table in the upper, signature in the lower 32 bits
+    private final Map<Long, List<Long>> buckets = new HashMap<>();
+    private final Map<Long, long[]> keysById = new HashMap<>();
+    private float[] hyperplanes = new float[0];
+    private float[] mean = new float[0];
+    private int dimension = 0;
+    private volatile long builtGeneration = -1;
+
+    // Package-private for tests, the app uses the shared instance
+    LshIndex() {
+    }
+
+    public static LshIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isBuilt() {
+        return builtGeneration >= 0;
+    }
+
+    /**
+     * Builds the tables from the embedding index in one pass, unless that already happened for its current state.
+     * Call this from a background thread.
+     *
+     * @return Whether the tables were built
+     */
+    public boolean ensureBuilt(EmbeddingIndex index) {
+        lock.writeLock().lock();
+        try {
+            long generation = index.getGeneration();
+            if (builtGeneration == generation) return false;
+
+            long start = System.nanoTime();
+            EmbeddingIndex.Snapshot snapshot = index.snapshot();
+            buckets.clear();
+            keysById.clear();
+            dimension = snapshot.dimension;
+            createHyperplanes(snapshot);
+
+            float[] vector = new float[dimension];
+            for (int row = 0; row < snapshot.size(); row++) {
+                ScalarQuantizer.dequantize(snapshot.codes, row * dimension, unitScale(snapshot, row), vector, dimension);
+                insertLocked(snapshot.ids[row], vector);
+            }
+
+            builtGeneration = generation;
+            Log.d(TAG, "Hashed " + snapshot.size() + " tracks into " + buckets.size() + " buckets in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the embedding of a track or replaces its current one. Ignored until the tables were built.
+     *
+     * @param vector The embedding as the analysis computed it, of any length
+     */
+    public void add(long trackId, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (!isBuilt() || vector.length != dimension) return;
+            removeLocked(trackId);
+            insertLocked(trackId, unitVector(vector));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long trackId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(trackId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Whether the track is a near-duplicate of one of the given tracks, e.g. the play history
+     */
+    public boolean isDuplicateOfAny(long trackId, LongHashSet trackIds, float threshold, EmbeddingIndex index) {
+        lock.readLock().lock();
+        try {
+            long[] keys = keysById.get(trackId);
+            if (keys == null) return false;
+
+            float[] vector = null;
+            for (long key : keys) {
+                List<Long> bucket = buckets.get(key);
+                if (bucket == null || bucket.size() > MAX_BUCKET_SIZE) continue;
+
+                for (long otherId : bucket) {
+                    if (otherId == trackId || !trackIds.contains(otherId)) continue;
+
+                    if (vector == null) vector = index.getVector(trackId);
+                    float[] other = index.getVector(otherId);
+                    if (vector != null && other != null && cosine(vector, other) >= threshold) return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Groups the library into clusters of near-duplicates. Only tracks sharing a bucket are compared,
+     * and pairs that already ended up in the same cluster are skipped.
+     * The app only uses it for the debug report of {@link #logDuplicateClusters}, there is no screen for it yet.
+     *
+     * @return Every cluster with at least two tracks
+     */
+    public List<long[]> findDuplicateClusters(EmbeddingIndex index, float threshold) {
+        lock.readLock().lock();
+        try {
+            long start = System.nanoTime();
+            EmbeddingIndex.Snapshot snapshot = index.snapshot();
+            Map<Long, Integer> rowsById = new HashMap<>();
+            for (int row = 0; row < snapshot.size(); row++) {
+                rowsById.put(snapshot.ids[row], row);
+            }
+
+            // Union-find over the rows of the snapshot
+            int[] parents = new int[snapshot.size()];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = i;
+            }
+
+            long comparisons = 0;
+            for (List<Long> bucket : buckets.values()) {
+                if (bucket.size() < 2 || bucket.size() > MAX_BUCKET_SIZE) continue;
+
+                for (int i = 0; i < bucket.size(); i++) {
+                    Integer a = rowsById.get(bucket.get(i));
+                    if (a == null) continue;
+                    for (int j = i + 1; j < bucket.size(); j++) {
+                        Integer b = rowsById.get(bucket.get(j));
+                        if (b == null) continue;
+
+                        int rootA = find(parents, a);
+                        int rootB = find(parents, b);
+                        if (rootA == rootB) continue;
+
+                        comparisons++;
+                        if (similarity(snapshot, a, b) >= threshold) parents[rootB] = rootA;
+                    }
+                }
+            }
+
+            // Most tracks are alone, only rows with a parent or a child get a list
+            Map<Integer, List<Long>> clustersByRoot = new HashMap<>();
+            boolean[] hasChild = new boolean[parents.length];
+            for (int row = 0; row < parents.length; row++) {
+                if (parents[row] != row) hasChild[find(parents, row)] = true;
+            }
+            for (int row = 0; row < parents.length; row++) {
+                int root = find(parents, row);
+                if (root == row && !hasChild[row]) continue;
+                clustersByRoot.computeIfAbsent(root, key -> new ArrayList<>()).add(snapshot.ids[row]);
+            }
+
+            List<long[]> clusters = new ArrayList<>();
+            for (List<Long> members : clustersByRoot.values()) {
+                if (members.size() < 2) continue;
+                long[] cluster = new long[members.size()];
+                for (int i = 0; i < cluster.length; i++) {
+                    cluster[i] = members.get(i);
+                }
+                clusters.add(cluster);
+            }
+
+            Log.d(TAG, "Found " + clusters.size() + " duplicate clusters with " + comparisons + " comparisons in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return clusters;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the near-duplicate clusters of the library to the log, for checking the threshold on a real library.
+     */
+    public void logDuplicateClusters(EmbeddingIndex index, float threshold) {
+        List<long[]> clusters = findDuplicateClusters(index, threshold);
+        int tracks = 0;
+        for (long[] cluster : clusters) {
+            tracks += cluster.length;
+        }
+        Log.d(TAG, clusters.size() + " duplicate clusters with " + tracks + " tracks at threshold " + threshold);
+        for (int i = 0; i < Math.min(MAX_LOGGED_CLUSTERS, clusters.size()); i++) {
+            Log.d(TAG, "Duplicates: " + Arrays.toString(clusters.get(i)));
+        }
+    }
+
+    /**
+     * Draws the Gaussian hyperplanes, seeded so the buckets are the same after every build,
+     * and takes the mean of the library as the center.
+     */
+    private void createHyperplanes(EmbeddingIndex.Snapshot snapshot) {
+        Random random = new Random(42);
+        hyperplanes = new float[TABLES * BITS * dimension];
+        for (int i = 0; i < hyperplanes.length; i++) {
+            hyperplanes[i] = (float) random.nextGaussian();
+        }
+
+        mean = new float[dimension];
+        for (int row = 0; row < snapshot.size(); row++) {
+            float scale = unitScale(snapshot, row);
+            int offset = row * dimension;
+            for (int d = 0; d < dimension; d++) {
+                mean[d] += snapshot.codes[offset + d] * scale;
+            }
+        }
+        if (snapshot.size() > 0) {
+            for (int d = 0; d < dimension; d++) {
+                mean[d] /= snapshot.size();
+            }
+        }
+    }
+
+    private void insertLocked(long trackId, float[] vector) {
+        long[] keys = new long[TABLES];
+        for (int table = 0; table < TABLES; table++) {
+            int signature = 0;
+            for (int bit = 0; bit < BITS; bit++) {
+                int offset = (table * BITS + bit) * dimension;
+                float projection = 0f;
+                for (int d = 0; d < dimension; d++) {
+                    projection += hyperplanes[offset + d] * (vector[d] - mean[d]);
+                }
+                if (projection >= 0) signature |= 1 << bit;
+            }
+            keys[table] = ((long) table << 32) | signature;
+            buckets.computeIfAbsent(keys[table], key -> new ArrayList<>()).add(trackId);
+        }
+        keysById.put(trackId, keys);
+    }
+
+    private void removeLocked(long trackId) {
+        long[] keys = keysById.remove(trackId);
+        if (keys == null) return;
+
+        for (long key : keys) {
+            List<Long> bucket = buckets.get(key);
+            if (bucket == null) continue;
+            bucket.remove(Long.valueOf(trackId));
+            if (bucket.isEmpty()) buckets.remove(key);
+        }
+    }
+
+    private static int find(int[] parents, int row) {
+        while (parents[row] != row) {
+            // Path halving keeps the trees flat
+            parents[row] = parents[parents[row]];
+            row = parents[row];
+        }
+        return row;
+    }
+
+    /**
+     * @return The cosine similarity of two rows, the scales cancel out
+     */
+    private static float similarity(EmbeddingIndex.Snapshot snapshot, int a, int b) {
+        int dimension = snapshot.dimension;
+        int sum = ScalarQuantizer.dot(snapshot.codes, a * dimension, snapshot.codes, b * dimension, dimension);
+        return sum * unitScale(snapshot, a) * unitScale(snapshot, b);
+    }
+
+    /**
+     * @return The factor that turns the codes of the row into a unit vector, 0 for the zero row
+     */
+    private static float unitScale(EmbeddingIndex.Snapshot snapshot, int row) {
+        int dimension = snapshot.dimension;
+        int squares = ScalarQuantizer.dot(snapshot.codes, row * dimension, snapshot.codes, row * dimension, dimension);
+        return (squares > 0) ? (float) (1.0 / Math.sqrt(squares)) : 0f;
+    }
+
+    private static float[] unitVector(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] unit = new float[vector.length];
+        if (norm == 0) return unit;
+
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+
+    private static float cosine(float[] a, float[] b) {
+        if (a.length != b.length) return 0f;
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return (normA > 0 && normB > 0) ? (float) (dot / Math.sqrt(normA * normB)) : 0f;
+    }
+}
@@ -0,0 +1,159 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
+
+import java.util.Arrays;
+
+/**
+ * Plans a whole mix at once instead of searching the next song whenever one ends.
+ * <p>
+ * One scan over the embedding index collects a pool of tracks similar to the seed. The order is then a greedy
+ * nearest neighbour tour through the pool: every step picks the unused track most similar to the one before,
+ * plus a pull toward the seed, so consecutive songs blend smoothly without the mix drifting off.
+ */
+public class MixPlanner {
+    private static final String TAG = "MixPlanner";
+
+    // How strongly every step is pulled back to the seed, 0 lets the mix drift freely
+    private static final float SEED_WEIGHT = 0.35f;
+
+    // The pool holds this many times the mix length, so the tour still has choices toward the end
+    private static final int POOL_FACTOR = 4;
+
+    /**
+     * Plans a mix that continues from the seed track.
+     *
+     * @param excluded Tracks that must not be planned, e.g. the play history and the current queue
+     * @return The planned track ids in play order, without the seed, empty if the seed has no embedding
+     */
+    public long[] planFromSeed(long seedTrackId, int length, LongHashSet excluded, EmbeddingIndex index) {
+        float[] seedVector = index.getVector(seedTrackId);
+        if (seedVector == null || length <= 0) return new long[0];
+
+        long start = System.nanoTime();
+        // The single library scan of the whole mix
+        TopKSelector pool = new TopKSelector(length * POOL_FACTOR);
+        index.score(seedVector, (trackId, score) -> {
+            if (trackId != seedTrackId && !excluded.contains(trackId)) pool.offer(trackId, score);
+        });
+
+        long[] poolIds = new long[pool.size()];
+        for (int i = 0; i < poolIds.length; i++) {
+            poolIds[i] = pool.getId(i);
+        }
+        long[] planned = tour(seedVector, seedVector, poolIds, length, index);
+
+        Log.d(TAG, "Planned " + planned.length + " tracks from a pool of " + poolIds.length + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return planned;
+    }
+
+    /**
+     * Orders the beginning of a fixed set of tracks, e.g. a playlist, into a smooth tour.
+     * The tour starts with the first track that has an embedding and continues through a pool of the tracks
+     * closest to the centroid of the set, at most {@code length} tracks in total. The caller appends the rest,
+     * so a large playlist costs two linear scans instead of a tour over all of its tracks.
+     */
+    public long[] planFromTracks(long[] trackIds, int length, EmbeddingIndex index) {
+        int startIndex = 0;
+        float[] start = null;
+        while (startIndex < trackIds.length && (start = index.getVector(trackIds[startIndex])) == null) {
+            startIndex++;
+        }
+        if (start == null || length <= 0) return new long[0];
+
+        // The playlist itself is the theme, so the tour is pulled toward its centroid
+        float[] centroid = new float[start.length];
+        for (int i = startIndex; i < trackIds.length; i++) {
+            float[] vector = index.getVector(trackIds[i]);
+            if (vector == null || vector.length != centroid.length) continue;
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] += vector[d];
+            }
+        }
+        normalize(centroid);
+
+        long[] poolIds = new long[0];
+        EmbeddingIndex.PreparedQuery query = index.prepare(centroid);
+        if (length > 1 && query != null) {
+            // Scored on the quantized rows, so the pool selection does not copy a vector per track
+            TopKSelector pool = new TopKSelector((length - 1) * POOL_FACTOR);
+            for (int i = startIndex + 1; i < trackIds.length; i++) {
+                float score = index.score(query, trackIds[i]);
+                if (score != EmbeddingIndex.NO_SCORE) pool.offer(trackIds[i], score);
+            }
+            poolIds = new long[pool.size()];
+            for (int i = 0; i < poolIds.length; i++) {
+                poolIds[i] = pool.getId(i);
+            }
+        }
+
+        long[] planned = tour(start, centroid, poolIds, length - 1, index);
+
+        long[] withStart = new long[planned.length + 1];
+        withStart[0] = trackIds[startIndex];
+        System.arraycopy(planned, 0, withStart, 1, planned.length);
+        return withStart;
+    }
+
+    private long[] tour(float[] start, float[] anchor, long[] poolIds, int length, EmbeddingIndex index) {
+        float[][] vectors = new float[poolIds.length][];
+        float[] anchorScores = new float[poolIds.length];
+        for (int i = 0; i < poolIds.length; i++) {
+            vectors[i] = index.getVector(poolIds[i]);
+            if (vectors[i] != null && vectors[i].length == anchor.length) {
+                anchorScores[i] = dot(anchor, vectors[i]);
+            } else {
+                vectors[i] = null;
+            }
+        }
+
+        boolean[] used = new boolean[poolIds.length];
+        long[] order = new long[Math.min(length, poolIds.length)];
+        int count = 0;
+        float[] current = start;
+
+        while (count < order.length) {
+            int best = -1;
+            float bestScore = -Float.MAX_VALUE;
+            for (int i = 0; i < poolIds.length; i++) {
+                if (used[i] || vectors[i] == null) continue;
+
+                float score = dot(current, vectors[i]) + SEED_WEIGHT * anchorScores[i];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            if (best < 0) break;
+
+            used[best] = true;
+            order[count++] = poolIds[best];
+            current = vectors[best];
+        }
+        return (count == order.length) ? order : Arrays.copyOf(order, count);
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) return;
+
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
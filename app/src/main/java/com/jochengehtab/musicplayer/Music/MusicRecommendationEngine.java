@@ -2,81 +2,226 @@ package com.jochengehtab.musicplayer.Music;
 
 import android.util.Log;
 
-import com.jochengehtab.musicplayer.Data.Track;
+import com.jochengehtab.musicplayer.Data.TrackNeighbour;
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
 
 public class MusicRecommendationEngine {
+    private static final String TAG = "Next Song";
 
-    private record ScoredTrack(Track track, double score) {}
+    // How many of the most similar tracks the next song is picked from
+    private static final int CANDIDATE_COUNT = 5;
+
+    // The scan shortlists this many times more tracks, which are then re-ranked with the exact vectors
+    private static final int RERANK_FACTOR = 4;
 
     private final Random random = new Random();
+    private final TopKSelector candidates = new TopKSelector(CANDIDATE_COUNT * RERANK_FACTOR);
+    private final TopKSelector historyCandidates = new TopKSelector(CANDIDATE_COUNT * RERANK_FACTOR);
+    private final TopKSelector finalists = new TopKSelector(CANDIDATE_COUNT);
+    private final long[] shortlistIds = new long[CANDIDATE_COUNT * RERANK_FACTOR];
+    private final float[][] shortlistVectors = new float[CANDIDATE_COUNT * RERANK_FACTOR][];
+    private final float[] shortlistScores = new float[CANDIDATE_COUNT * RERANK_FACTOR];
+    private final float[] learnedScores = new float[CANDIDATE_COUNT * RERANK_FACTOR];
+    private LearnedRanker learnedRanker;
+    private LshIndex duplicateIndex;
+    private boolean debugLogging = false;
+    private boolean reranking = true;
+
+    // Duration of the stages of the last search
+    private long candidateNanos = 0;
+    private long rerankNanos = 0;
+    private long learnedNanos = 0;
 
     /**
-     * Finds a suitable next song.
-     * Strategy:
-     * 1. Calculate similarity for ALL tracks.
-     * 2. Sort by similarity (High to Low).
-     * 3. Filter out songs currently in the 'recentHistory'.
-     * 4. Pick a random song from the top 5 remaining candidates.
+     * Logs the chosen song and its candidates.
      */
-    public Track findNextSong(Track currentTrack, List<Track> allTracks, List<Long> recentHistory) {
-        float[] currentVector = currentTrack.getStyleVector();
-        if (currentVector == null) return null;
+    public void setDebugLogging(boolean debugLogging) {
+        this.debugLogging = debugLogging;
+    }
 
-        List<ScoredTrack> scoredTracks = new ArrayList<>();
+    /**
+     * Whether the shortlist of a quantized index is re-ranked with the exact vectors.
+     */
+    public void setReranking(boolean reranking) {
+        this.reranking = reranking;
+    }
 
-        // 1. Score all tracks
-        for (Track candidate : allTracks) {
-            // Skip the song that just played
-            if (candidate.id == currentTrack.id) continue;
+    /**
+     * Sets the index used to skip near-duplicates of the history, e.g. another copy of the song that just played.
+     * Null only skips the exact tracks.
+     */
+    public synchronized void setDuplicateIndex(LshIndex duplicateIndex) {
+        this.duplicateIndex = duplicateIndex;
+    }
+
+    /**
+     * Sets the model that ranks the shortlist, null keeps the cosine scores.
+     */
+    public synchronized void setLearnedRanker(LearnedRanker learnedRanker) {
+        this.learnedRanker = learnedRanker;
+    }
 
-            float[] candidateVector = candidate.getStyleVector();
-            if (candidateVector == null) continue;
+    /**
+     * Finds a suitable next song.
+     * Strategy:
+     * 1. Use the precomputed neighbours of the track if there are any. Otherwise calculate similarity
+     *    for ALL tracks in the embedding index, or only for the nearest ones found by the ANN graph in large libraries.
+     * 2. Keep a shortlist of the best, songs currently in the 'recentHistory' are kept apart.
+     *    Near-duplicates of the history are dropped from the shortlist, unless nothing else is left.
+     *    Rank the shortlist with the learned model if there is one and keep the top 5.
+     * 3. Pick a random song from the top 5 candidates that are not in the history.
+     *
+     * @param neighbours The precomputed neighbours of the current track, may be empty
+     * @return The id of the next track, or -1 if the current track has no embedding
+     */
+    public synchronized long findNextSong(long currentTrackId, List<TrackNeighbour> neighbours, EmbeddingIndex index,
+                                          HnswIndex annIndex, LongHashSet recentHistory) {
+        candidates.clear();
+        historyCandidates.clear();
+        long start = System.nanoTime();
+
+        // 1. + 2. Score the tracks, the heaps only ever hold the best 5
+        EmbeddingIndex.ScoreVisitor visitor = (trackId, similarity) -> {
+            // Skip the song that just played
+            if (trackId == currentTrackId) return;
+
+            // We filter out tracks that are in the history to prevent immediate loops
+            if (recentHistory.contains(trackId)) {
+                historyCandidates.offer(trackId, similarity);
+            } else {
+                candidates.offer(trackId, similarity);
+            }
+        };
+
+        if (neighbours != null && !neighbours.isEmpty()) {
+            // Constant time, the library was already scanned when the lists were computed
+            for (TrackNeighbour neighbour : neighbours) {
+                visitor.visit(neighbour.neighbourId, neighbour.score);
+            }
+        } else {
+            float[] currentVector = index.getVector(currentTrackId);
+            if (currentVector == null) return -1;
+
+            if (annIndex != null && annIndex.isReady() && index.size() >= HnswIndex.MIN_TRACKS) {
+                // Ask for enough neighbours that the history and the current song can be filtered out
+                annIndex.search(currentVector, CANDIDATE_COUNT * RERANK_FACTOR + recentHistory.size() + 1, visitor);
+            } else {
+                index.score(currentVector, visitor);
+            }
+        }
 
-            double similarity = cosineSimilarity(currentVector, candidateVector);
-            scoredTracks.add(new ScoredTrack(candidate, similarity));
+        // Fallback: If we filtered everything out (small library), use the history tracks
+        TopKSelector shortlist = (candidates.size() > 0) ? candidates : historyCandidates;
+        if (shortlist.size() == 0) return -1;
+        candidateNanos = System.nanoTime() - start;
+        TopKSelector pool = selectFinalists(currentTrackId, index, shortlist, recentHistory);
+
+        // 3. This adds "Flavor" so it's not always the exact same path
+        int randomIndex = random.nextInt(pool.size());
+        long nextTrackId = pool.getId(randomIndex);
+
+        if (debugLogging) {
+            Log.d(TAG, String.valueOf(nextTrackId));
+            Log.d(TAG, "Candidates " + candidateNanos / 1000 + " us, re-rank " + rerankNanos / 1000
+                    + " us, learned rank " + learnedNanos / 1000 + " us");
+            for (int i = 0; i < pool.size(); i++) {
+                Log.d(TAG, "Candidate " + pool.getId(i) + " Similarity " + pool.getScore(i));
+            }
         }
+        return nextTrackId;
+    }
 
-        // 2. Sort by Similarity (Highest first)
-        scoredTracks.sort((o1, o2) -> Double.compare(o2.score, o1.score));
+    /**
+     * Keeps the best 5 of the shortlist. The int8 scores of a quantized index are close but not exact,
+     * so the shortlist is scored again with the exact vectors first. If the learned ranker is available,
+     * its scores replace the cosine ones.
+     */
+    private TopKSelector selectFinalists(long currentTrackId, EmbeddingIndex index, TopKSelector shortlist,
+                                         LongHashSet recentHistory) {
+        long start = System.nanoTime();
+        finalists.clear();
+        int count = (shortlist == candidates)
+                ? removeDuplicatesOfHistory(index, recentHistory, shortlist.size())
+                : copyShortlist(shortlist);
+        boolean exact = reranking && index.isQuantized();
+        boolean learned = learnedRanker != null && learnedRanker.isAvailable();
+
+        // Both stages need the vectors of the shortlist, they are fetched once
+        float[] query = null;
+        if (exact || learned) {
+            query = exact ? index.getFullPrecisionVector(currentTrackId) : index.getVector(currentTrackId);
+        }
+        boolean vectorsComplete = query != null;
+        for (int i = 0; i < count; i++) {
+            long trackId = shortlistIds[i];
+            shortlistVectors[i] = null;
+            if (query == null) continue;
+
+            float[] vector = exact ? index.getFullPrecisionVector(trackId) : index.getVector(trackId);
+            if (vector != null && vector.length == query.length) {
+                shortlistVectors[i] = vector;
+                if (exact) shortlistScores[i] = dot(query, vector);
+            } else {
+                vectorsComplete = false;
+            }
+        }
+        rerankNanos = System.nanoTime() - start;
+
+        learnedNanos = 0;
+        float[] scores = shortlistScores;
+        if (learned && vectorsComplete) {
+            start = System.nanoTime();
+            if (learnedRanker.score(query, shortlistVectors, count, learnedScores)) scores = learnedScores;
+            learnedNanos = System.nanoTime() - start;
+        }
 
-        // 3. Filter out history (Short-term memory)
-        // We filter out tracks that are in the history list to prevent immediate loops
-        List<ScoredTrack> candidates = scoredTracks.stream()
-                .filter(st -> !recentHistory.contains(st.track.id))
-                .collect(Collectors.toList());
+        for (int i = 0; i < count; i++) {
+            finalists.offer(shortlistIds[i], scores[i]);
+            shortlistVectors[i] = null;
+        }
+        return finalists;
+    }
 
-        // Fallback: If we filtered everything out (small library), use the full list
-        if (candidates.isEmpty()) {
-            candidates = scoredTracks;
+    /**
+     * Copies the shortlist into {@code shortlistIds} and {@code shortlistScores},
+     * without the near-duplicates of the history if anything else is left.
+     *
+     * @return The number of copied candidates
+     */
+    private int removeDuplicatesOfHistory(EmbeddingIndex index, LongHashSet recentHistory, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long trackId = candidates.getId(i);
+            if (duplicateIndex != null
+                    && duplicateIndex.isDuplicateOfAny(trackId, recentHistory, LshIndex.DEFAULT_THRESHOLD, index)) {
+                continue;
+            }
+            shortlistIds[kept] = trackId;
+            shortlistScores[kept] = candidates.getScore(i);
+            kept++;
         }
+        if (kept > 0) return kept;
 
-        // 4. Select from Top N (e.g., Top 5)
-        // This adds "Flavor" so it's not always the exact same path
-        int poolSize = Math.min(candidates.size(), 5);
-        if (poolSize == 0) return null;
+        // Only copies of the history are left, better one of them than nothing
+        return copyShortlist(candidates);
+    }
 
-        // Pick a random index from 0 to poolSize
-        int randomIndex = random.nextInt(poolSize);
-        Log.i("Next Song", candidates.get(randomIndex).track.title);
-        for (ScoredTrack t : candidates) {
-            Log.i("Candidates", t.track.title + " Similarity" + t.score);
+    private int copyShortlist(TopKSelector shortlist) {
+        for (int i = 0; i < shortlist.size(); i++) {
+            shortlistIds[i] = shortlist.getId(i);
+            shortlistScores[i] = shortlist.getScore(i);
         }
-        return candidates.get(randomIndex).track;
+        return shortlist.size();
     }
 
-    // If you implement the re-normalization in AudioClassifier, use this:
-    private double cosineSimilarity(float[] vectorA, float[] vectorB) {
-        double dotProduct = 0.0;
-        // We assume vectors are already normalized to length 1.0
-        // This removes the need for expensive Math.sqrt calls during the loop
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
+    private static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
         }
-        return dotProduct;
+        return sum;
     }
-}
\ No newline at end of file
+}
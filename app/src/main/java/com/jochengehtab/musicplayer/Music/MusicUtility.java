@@ -10,16 +10,23 @@ import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.jochengehtab.musicplayer.BuildConfig;
 import com.jochengehtab.musicplayer.Data.AppDatabase;
 import com.jochengehtab.musicplayer.Data.PlaylistWithTracks;
 import com.jochengehtab.musicplayer.Data.Track;
+import com.jochengehtab.musicplayer.Data.TrackFeatures;
+import com.jochengehtab.musicplayer.Data.TrackNeighbour;
+import com.jochengehtab.musicplayer.MainActivity.AnalysisScheduler;
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -27,6 +34,9 @@ import java.util.function.Consumer;
 
 public class MusicUtility {
     private static final int HISTORY_SIZE = 10; // Remember last 10 songs
+    private static final String ANN_INDEX_FILE = "style_embeddings.hnsw";
+    // Tracks planned at once when a mix starts or runs out
+    private static final int MIX_LENGTH = 20;
     private int currentIndex = 0;
     private boolean loopEnabled = true;
     private boolean mixEnabled = false;
@@ -38,6 +48,8 @@ public class MusicUtility {
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final AtomicBoolean cancelToken = new AtomicBoolean(false);
     private final MusicRecommendationEngine musicRecommendationEngine = new MusicRecommendationEngine();
+    private final MixPlanner mixPlanner = new MixPlanner();
+    private final LearnedRanker learnedRanker;
     private final Consumer<String> updateBottomTitle;
     private final Consumer<Boolean> updateBottomPlayIcon;
     private final List<Track> playQueue = new ArrayList<>();
@@ -48,6 +60,10 @@ public class MusicUtility {
         this.database = database;
         this.updateBottomTitle = updateBottomTitle;
         this.updateBottomPlayIcon = updateBottomPlayIcon;
+        this.learnedRanker = new LearnedRanker(context);
+        musicRecommendationEngine.setDebugLogging(BuildConfig.DEBUG);
+        musicRecommendationEngine.setLearnedRanker(learnedRanker);
+        musicRecommendationEngine.setDuplicateIndex(LshIndex.getInstance());
         initMediaSession();
     }
 
@@ -126,6 +142,13 @@ public class MusicUtility {
         addToHistory(track.id);
         cancelToken.set(false);
 
+        // Tracks the mix will need soon are analyzed first
+        List<Long> queuedTrackIds = new ArrayList<>(playQueue.size());
+        for (Track queued : playQueue) {
+            queuedTrackIds.add(queued.id);
+        }
+        AnalysisScheduler.getInstance(context).prioritizeAround(track.id, queuedTrackIds);
+
         long startMs = (timespan != null && timespan.length >= 1) ? timespan[0] : track.startTime;
         long endMs = (timespan != null && timespan.length >= 2) ? timespan[1] : track.endTime;
 
@@ -185,8 +208,10 @@ public class MusicUtility {
             executor.execute(() -> {
                 PlaylistWithTracks playlistWithTracks = database.playlistDao().getPlaylistWithTracks(playListName);
                 if (playlistWithTracks != null && !playlistWithTracks.tracks.isEmpty()) {
-                    List<Track> tracks = playlistWithTracks.tracks;
-                    Collections.shuffle(tracks);
+                    List<Track> shuffled = playlistWithTracks.tracks;
+                    // The shuffle picks the first track, the next ones follow as a smooth tour
+                    Collections.shuffle(shuffled);
+                    List<Track> tracks = orderAsTour(shuffled, prepareIndexes());
                     handler.post(() -> {
                         playQueue.addAll(tracks);
                         currentIndex = 0;
@@ -197,6 +222,27 @@ public class MusicUtility {
         }
     }
 
+    /**
+     * @return The tracks with a smooth tour of {@link #MIX_LENGTH} tracks first, the others keep their order
+     */
+    private List<Track> orderAsTour(List<Track> tracks, EmbeddingIndex embeddingIndex) {
+        long[] trackIds = new long[tracks.size()];
+        Map<Long, Track> tracksById = new HashMap<>();
+        for (int i = 0; i < trackIds.length; i++) {
+            trackIds[i] = tracks.get(i).id;
+            tracksById.put(trackIds[i], tracks.get(i));
+        }
+
+        List<Track> ordered = new ArrayList<>(tracks.size());
+        for (long trackId : mixPlanner.planFromTracks(trackIds, MIX_LENGTH, embeddingIndex)) {
+            ordered.add(tracksById.remove(trackId));
+        }
+        for (Track track : tracks) {
+            if (tracksById.containsKey(track.id)) ordered.add(track);
+        }
+        return ordered;
+    }
+
     private void updateMediaSessionState(int state) {
         if (mediaSession == null) return;
 
@@ -239,18 +285,48 @@ public class MusicUtility {
     private void findAndPlayNextSong(boolean playImmediately) {
         if (playQueue.isEmpty()) return;
 
+        // The planned mix still has upcoming tracks, nothing to search
+        if (mixEnabled && currentIndex + 1 < playQueue.size()) {
+            if (playImmediately) {
+                currentIndex++;
+                playCurrentQueueItem();
+            }
+            return;
+        }
+
         // Create a copy of the history to pass to the thread safely
-        List<Long> historySnapshot = new ArrayList<>(recentHistory);
+        LongHashSet historySnapshot = new LongHashSet(recentHistory.size());
+        for (long trackId : recentHistory) {
+            historySnapshot.add(trackId);
+        }
+        boolean planMix = mixEnabled;
+        if (planMix) {
+            // A new plan must not repeat anything that is already queued
+            for (Track track : playQueue) {
+                historySnapshot.add(track.id);
+            }
+        }
 
         executor.execute(() -> {
-            List<Track> allTracks = database.trackDao().getAllTracks();
+            EmbeddingIndex embeddingIndex = prepareIndexes();
 
-            Track nextTrack = musicRecommendationEngine.findNextSong(mediaPlayer.getCurrentTrack(), allTracks, historySnapshot);
+            Track currentTrack = mediaPlayer.getCurrentTrack();
+            List<Track> nextTracks = new ArrayList<>();
+            if (currentTrack != null && planMix) {
+                long[] planned = mixPlanner.planFromSeed(currentTrack.id, MIX_LENGTH, historySnapshot, embeddingIndex);
+                nextTracks.addAll(loadTracks(planned));
+            }
+            // Without a plan, e.g. the current track has not been analyzed yet, only the next song is searched
+            if (currentTrack != null && nextTracks.isEmpty()) {
+                List<TrackNeighbour> neighbours = database.neighbourDao().getNeighbours(currentTrack.id);
+                long nextTrackId = musicRecommendationEngine.findNextSong(currentTrack.id, neighbours, embeddingIndex,
+                        HnswIndex.getInstance(), historySnapshot);
+                Track nextTrack = (nextTrackId >= 0) ? database.trackDao().getTrack(nextTrackId) : null;
+                if (nextTrack != null) nextTracks.add(nextTrack);
+            }
 
             handler.post(() -> {
-                if (nextTrack != null) {
-                    playQueue.add(nextTrack);
-                }
+                playQueue.addAll(nextTracks);
 
                 // Only increment and play if requested.
                 // Otherwise, we just successfully buffered the next song.
@@ -262,6 +338,60 @@ public class MusicUtility {
         });
     }
 
+    /**
+     * Loads the embedding index and starts the background work on the derived indexes.
+     * Call this on the executor.
+     */
+    private EmbeddingIndex prepareIndexes() {
+        EmbeddingIndex embeddingIndex = EmbeddingIndex.getInstance();
+        embeddingIndex.setFullPrecisionLoader(trackId -> {
+            TrackFeatures features = database.trackDao().getFeatures(trackId);
+            return (features != null) ? features.getStyleVector() : null;
+        });
+        embeddingIndex.ensureLoaded(database);
+
+        // Rebuilt in one pass whenever the index was loaded again, otherwise kept up to date by the analysis
+        LshIndex duplicateIndex = LshIndex.getInstance();
+        if (duplicateIndex.ensureBuilt(embeddingIndex) && BuildConfig.DEBUG) {
+            // Debug only, the library screen does not list duplicates, playback uses isDuplicateOfAny
+            duplicateIndex.logDuplicateClusters(embeddingIndex, LshIndex.DEFAULT_THRESHOLD);
+        }
+
+        // Builds or updates the graph in the background, until then the exact scan is used.
+        // Small libraries are always scanned exactly, they never pay for the graph.
+        if (embeddingIndex.size() >= HnswIndex.MIN_TRACKS) {
+            HnswIndex annIndex = HnswIndex.getInstance();
+            annIndex.requestSync(new File(context.getFilesDir(), ANN_INDEX_FILE), () -> {
+                // Once per build of the graph, not on every sync
+                if (BuildConfig.DEBUG) {
+                    Log.d("HnswIndex", annIndex.measureRecall(50, 10, new int[]{16, 32, 64, 128}));
+                }
+            });
+        }
+
+        // Fills in missing neighbour lists in the background, a no-op once all are computed
+        NeighbourGraph.getInstance().requestRefresh(database);
+        return embeddingIndex;
+    }
+
+    /**
+     * @return The tracks in the order of the ids, deleted ones are skipped
+     */
+    private List<Track> loadTracks(long[] trackIds) {
+        if (trackIds.length == 0) return Collections.emptyList();
+
+        Map<Long, Track> tracksById = new HashMap<>();
+        for (Track track : database.trackDao().getTracks(trackIds)) {
+            tracksById.put(track.id, track);
+        }
+        List<Track> tracks = new ArrayList<>(trackIds.length);
+        for (long trackId : trackIds) {
+            Track track = tracksById.get(trackId);
+            if (track != null) tracks.add(track);
+        }
+        return tracks;
+    }
+
     public synchronized void stopAndCancel() {
         cancelToken.set(true);
         handler.removeCallbacksAndMessages(null);
@@ -286,6 +416,9 @@ public class MusicUtility {
             mediaSession.release();
             mediaSession = null;
         }
+
+        // On the executor, a running search may still use the model
+        executor.execute(learnedRanker::close);
     }
 
     public void pause() {
@@ -0,0 +1,137 @@
+package com.jochengehtab.musicplayer.Music;
+
+import android.util.Log;
+
+import com.jochengehtab.musicplayer.Data.AppDatabase;
+import com.jochengehtab.musicplayer.Data.NeighbourDao;
+import com.jochengehtab.musicplayer.Data.NeighbourThreshold;
+import com.jochengehtab.musicplayer.Data.TrackNeighbour;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the precomputed top-K neighbour lists in the database up to date.
+ * <p>
+ * A track whose list is missing or too short, because it is new or because neighbours got deleted,
+ * is scored against the whole library once. The same scan patches the lists of all other tracks the track
+ * is more similar to than their current weakest neighbour, so no other list has to be recomputed.
+ */
+public final class NeighbourGraph {
+    private static final String TAG = "NeighbourGraph";
+
+    // Enough to pick from after the play history was filtered out
+    public static final int NEIGHBOUR_COUNT = 24;
+
+    private static final NeighbourGraph INSTANCE = new NeighbourGraph();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+
+    private NeighbourGraph() {
+    }
+
+    public static NeighbourGraph getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Computes the missing and stale neighbour lists on a background thread.
+     * Calls while a refresh is waiting to start are merged into it.
+     */
+    public void requestRefresh(AppDatabase database) {
+        if (!refreshQueued.compareAndSet(false, true)) return;
+
+        executor.execute(() -> {
+            refreshQueued.set(false);
+            try {
+                refresh(database);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Refreshing the neighbour lists failed", e);
+            }
+        });
+    }
+
+    private void refresh(AppDatabase database) {
+        EmbeddingIndex index = EmbeddingIndex.getInstance();
+        index.ensureLoaded(database);
+        NeighbourDao dao = database.neighbourDao();
+
+        // Small libraries can not fill a whole list
+        int listSize = Math.min(NEIGHBOUR_COUNT, index.size() - 1);
+        if (listSize <= 0) return;
+
+        List<Long> staleTracks = dao.getStaleTracks(listSize);
+        if (staleTracks.isEmpty()) return;
+
+        long start = System.nanoTime();
+        Map<Long, NeighbourThreshold> thresholds = new HashMap<>();
+        for (NeighbourThreshold threshold : dao.getThresholds()) {
+            thresholds.put(threshold.trackId, threshold);
+        }
+
+        int patched = 0;
+        TopKSelector selector = new TopKSelector(listSize);
+        for (long trackId : staleTracks) {
+            float[] vector = index.getVector(trackId);
+            if (vector == null) continue;
+
+            selector.clear();
+            List<TrackNeighbour> patches = new ArrayList<>();
+            index.score(vector, (candidateId, score) -> {
+                if (candidateId == trackId) return;
+                selector.offer(candidateId, score);
+
+                // Does the new track make it into the list of the candidate?
+                NeighbourThreshold threshold = thresholds.get(candidateId);
+                if (threshold != null && (threshold.count < listSize || score > threshold.minScore)) {
+                    patches.add(new TrackNeighbour(candidateId, trackId, score));
+                }
+            });
+
+            List<TrackNeighbour> neighbours = new ArrayList<>(selector.size());
+            for (int i = 0; i < selector.size(); i++) {
+                neighbours.add(new TrackNeighbour(trackId, selector.getId(i), selector.getScore(i)));
+            }
+            database.runInTransaction(() -> {
+                dao.replaceNeighbours(trackId, neighbours);
+                for (TrackNeighbour patch : patches) {
+                    dao.patchNeighbour(patch, listSize);
+                }
+            });
+            patched += patches.size();
+
+            // The list of this track is complete now, later tracks of the batch may patch it too
+            NeighbourThreshold threshold = new NeighbourThreshold();
+            threshold.trackId = trackId;
+            threshold.count = neighbours.size();
+            threshold.minScore = Float.MAX_VALUE;
+            for (TrackNeighbour neighbour : neighbours) {
+                threshold.minScore = Math.min(threshold.minScore, neighbour.score);
+            }
+            thresholds.put(trackId, threshold);
+            for (TrackNeighbour patch : patches) {
+                updateThreshold(thresholds.get(patch.trackId), patch.score, listSize);
+            }
+        }
+
+        Log.d(TAG, "Computed " + staleTracks.size() + " neighbour lists and patched " + patched + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Tracks the list size after a patch. Once the list is full the old weakest score stays as a lower bound,
+     * which might patch a few tracks too many, but the trim keeps the list correct.
+     */
+    private static void updateThreshold(NeighbourThreshold threshold, float score, int listSize) {
+        if (threshold.count < listSize) {
+            threshold.count++;
+            threshold.minScore = Math.min(threshold.minScore, score);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.jochengehtab.musicplayer.Music;
+
+/**
+ * Symmetric int8 quantization with one scale per vector: value ≈ code * scale, code in [-127, 127].
+ * {@link EmbeddingIndex} normalizes the embeddings, so a single scale loses little
+ * and keeps the dot product a plain integer loop.
+ */
+public final class ScalarQuantizer {
+    private ScalarQuantizer() {
+    }
+
+    /**
+     * Quantizes {@code dimension} values starting at {@code offset} into {@code codes}.
+     *
+     * @return The scale of the vector
+     */
+    public static float quantize(float[] vector, int offset, int dimension, byte[] codes, int codeOffset) {
+        float maxAbs = 0f;
+        for (int i = 0; i < dimension; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(vector[offset + i]));
+        }
+        if (maxAbs == 0f) {
+            for (int i = 0; i < dimension; i++) {
+                codes[codeOffset + i] = 0;
+            }
+            return 0f;
+        }
+
+        float inverseScale = 127f / maxAbs;
+        for (int i = 0; i < dimension; i++) {
+            codes[codeOffset + i] = (byte) Math.round(vector[offset + i] * inverseScale);
+        }
+        return maxAbs / 127f;
+    }
+
+    public static void dequantize(byte[] codes, int codeOffset, float scale, float[] vector, int dimension) {
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = codes[codeOffset + i] * scale;
+        }
+    }
+
+    /**
+     * Integer dot product of two code rows, 1024 products of at most 127² can not overflow an int.
+     */
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int dimension) {
+        int sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package com.jochengehtab.musicplayer.Music;
+
+/**
+ * Keeps the k highest scored ids of a stream in a fixed-size min-heap.
+ * Offering a score costs O(log k) and never allocates.
+ */
+public class TopKSelector {
+    private final int capacity;
+    private final float[] scores;
+    private final long[] ids;
+    private int size = 0;
+
+    public TopKSelector(int capacity) {
+        this.capacity = capacity;
+        this.scores = new float[capacity];
+        this.ids = new long[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void offer(long id, float score) {
+        if (size < capacity) {
+            scores[size] = score;
+            ids[size] = id;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            // Replace the lowest of the current top k
+            scores[0] = score;
+            ids[0] = id;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The id at heap position i, the positions are not sorted by score
+     */
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public float getScore(int i) {
+        return scores[i];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) return;
+            int smallest = (left + 1 < size && scores[left + 1] < scores[left]) ? left + 1 : left;
+            if (scores[i] <= scores[smallest]) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+}
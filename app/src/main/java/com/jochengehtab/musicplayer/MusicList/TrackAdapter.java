@@ -19,7 +19,9 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.jochengehtab.musicplayer.AudioClassifier.AnalysisPreemption;
 import com.jochengehtab.musicplayer.AudioClassifier.AudioClassifier;
+import com.jochengehtab.musicplayer.AudioClassifier.AudioClassifierPool;
 import com.jochengehtab.musicplayer.AudioClassifier.Event;
 import com.jochengehtab.musicplayer.MainActivity.MainActivity;
 import com.jochengehtab.musicplayer.Music.MusicUtility;
@@ -49,7 +51,6 @@ public class TrackAdapter extends RecyclerView.Adapter<TrackViewHolder> {
     private final Rename rename;
     private final Reset reset;
     private String currentPlaylistName = MainActivity.ALL_TRACKS_PLAYLIST_NAME;
-    private AudioClassifier audioClassifier;
 
     public TrackAdapter(
             Context context,
@@ -136,10 +137,15 @@ public class TrackAdapter extends RecyclerView.Adapter<TrackViewHolder> {
         progressDialog.show();
 
         executor.execute(() -> {
+            AudioClassifierPool classifierPool = AudioClassifierPool.getInstance(context);
+            AudioClassifier audioClassifier = null;
             try {
-                if (audioClassifier == null) {
-                    audioClassifier = new AudioClassifier(context);
-                }
+                // Leased before pausing the library analysis, a paused worker could never return its classifier
+                audioClassifier = classifierPool.acquire();
+                // The user waits for this one, the library analysis pauses at its next window
+                AnalysisPreemption.beginInteractive();
+                // Whole tracks are analyzed here, so run YAMNet once per segment instead of once per hop
+                audioClassifier.setInferenceMode(AudioClassifier.InferenceMode.SEGMENTED);
 
                 Uri audioUri = Uri.parse(track.uri);
 
@@ -165,6 +171,11 @@ public class TrackAdapter extends RecyclerView.Adapter<TrackViewHolder> {
                     progressDialog.dismiss();
                     Toast.makeText(context, "Analysis failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
                 });
+            } finally {
+                if (audioClassifier != null) {
+                    AnalysisPreemption.endInteractive();
+                    classifierPool.release(audioClassifier);
+                }
             }
         });
     }
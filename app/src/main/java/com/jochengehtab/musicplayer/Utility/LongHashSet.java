@@ -0,0 +1,86 @@
+package com.jochengehtab.musicplayer.Utility;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive longs, lookups neither box nor allocate.
+ */
+public class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size = 0;
+    private boolean containsEmptyKey = false;
+
+    public LongHashSet(int expectedSize) {
+        keys = new long[tableSizeFor(expectedSize)];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            boolean added = !containsEmptyKey;
+            containsEmptyKey = true;
+            return added;
+        }
+        if ((size + 1) * 2 > keys.length) grow();
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) return containsEmptyKey;
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size + (containsEmptyKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        containsEmptyKey = false;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (long key : oldKeys) {
+            if (key != EMPTY) add(key);
+        }
+    }
+
+    private static int hash(long key) {
+        // Mixes the bits, ids are sequential and would otherwise cluster
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        return capacity;
+    }
+}
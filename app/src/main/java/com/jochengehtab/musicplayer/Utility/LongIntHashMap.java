@@ -0,0 +1,148 @@
+package com.jochengehtab.musicplayer.Utility;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive longs to non-negative ints, lookups neither box nor allocate.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private int emptyKeyValue = MISSING;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = tableSizeFor(expectedSize);
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return The value of the key, or {@link #MISSING}
+     */
+    public int get(long key) {
+        if (key == EMPTY) return emptyKeyValue;
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * @param value Must not be negative
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            emptyKeyValue = value;
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) grow();
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    /**
+     * @return The removed value, or {@link #MISSING}
+     */
+    public int remove(long key) {
+        if (key == EMPTY) {
+            int value = emptyKeyValue;
+            emptyKeyValue = MISSING;
+            return value;
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                int value = values[slot];
+                closeGap(slot);
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return size + (emptyKeyValue != MISSING ? 1 : 0);
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        emptyKeyValue = MISSING;
+    }
+
+    /**
+     * Moves the following entries of the probe sequence back into the freed slot,
+     * so lookups never stop early at it. Unlike tombstones this keeps the table clean.
+     */
+    private void closeGap(int gap) {
+        int mask = keys.length - 1;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == EMPTY) break;
+
+            // The entry may only move back if its home slot is not between the gap and its current slot
+            int home = hash(key) & mask;
+            boolean movable = (gap <= slot) ? (home <= gap || home > slot) : (home <= gap && home > slot);
+            if (movable) {
+                keys[gap] = key;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = EMPTY;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private static int hash(long key) {
+        // Mixes the bits, ids are sequential and would otherwise cluster
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        return capacity;
+    }
+}
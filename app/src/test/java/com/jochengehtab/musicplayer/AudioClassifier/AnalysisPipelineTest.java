@@ -0,0 +1,80 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AnalysisPipelineTest {
+    private static final long TRACK_ID = 7;
+
+    @Test
+    public void finishesOnceAfterDecodingAndEverySnippet() {
+        RecordingListener listener = new RecordingListener();
+        AnalysisPipeline.TrackState state = new AnalysisPipeline.TrackState(TRACK_ID, listener, 0f);
+        state.probeCount = 2;
+
+        state.snippetQueued();
+        state.snippetQueued();
+        state.snippetConsumed(embedding(1f));
+        state.decodeFinished();
+        assertEquals(0, listener.finished.size());
+
+        state.snippetConsumed(embedding(3f));
+        assertEquals(1, listener.finished.size());
+        assertEquals(AudioClassifier.EMBEDDING_SIZE, listener.finished.get(0).length);
+        assertEquals(2f, listener.finished.get(0)[0], 1e-6f);
+        assertEquals(100, listener.lastPercent);
+    }
+
+    @Test
+    public void droppedSnippetDoesNotKeepTheTrackOpen() {
+        RecordingListener listener = new RecordingListener();
+        AnalysisPipeline.TrackState state = new AnalysisPipeline.TrackState(TRACK_ID, listener, 0f);
+
+        // The decoder was interrupted while queueing its only snippet
+        state.snippetQueued();
+        state.snippetDropped();
+        state.decodeFinished();
+
+        assertEquals(1, listener.finished.size());
+        assertEquals(0, listener.finished.get(0).length);
+    }
+
+    @Test
+    public void failedInferenceStillFinishesTheTrack() {
+        RecordingListener listener = new RecordingListener();
+        AnalysisPipeline.TrackState state = new AnalysisPipeline.TrackState(TRACK_ID, listener, 0f);
+
+        state.snippetQueued();
+        state.decodeFinished();
+        state.snippetConsumed(null);
+
+        assertEquals(1, listener.finished.size());
+        assertEquals(0, listener.finished.get(0).length);
+    }
+
+    private static float[] embedding(float value) {
+        float[] embedding = new float[AudioClassifier.EMBEDDING_SIZE];
+        Arrays.fill(embedding, value);
+        return embedding;
+    }
+
+    private static final class RecordingListener implements AnalysisPipeline.Listener {
+        final List<float[]> finished = new ArrayList<>();
+        int lastPercent = -1;
+
+        @Override
+        public void onProgress(long trackId, int percent) {
+            lastPercent = percent;
+        }
+
+        @Override
+        public void onFinished(long trackId, float[] embedding) {
+            finished.add(embedding);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PolyphaseResamplerTest {
+    private static final int INPUT_RATE = 44100;
+    private static final int OUTPUT_RATE = 16000;
+
+    @Test
+    public void constantInputKeepsItsLevel() {
+        PolyphaseResampler resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 2);
+        short[] pcm = new short[2 * INPUT_RATE];
+        Arrays.fill(pcm, (short) 16384);
+
+        float[] output = resample(resampler, ShortBuffer.wrap(pcm));
+
+        // Skips the start, where the filter still sees the silence in front of the first sample
+        for (int i = 100; i < output.length - 100; i++) {
+            assertEquals(0.5f, output[i], 1e-3f);
+        }
+    }
+
+    @Test
+    public void outputHasTheTargetRate() {
+        PolyphaseResampler resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 1);
+        float[] output = resample(resampler, ShortBuffer.wrap(new short[INPUT_RATE]));
+
+        // The last half filter waits for input that never comes
+        assertTrue(output.length + " samples", Math.abs(output.length - OUTPUT_RATE) < 50);
+    }
+
+    @Test
+    public void flushEmitsTheHeldBackSamples() {
+        PolyphaseResampler resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 1);
+        short[] pcm = new short[INPUT_RATE];
+        Arrays.fill(pcm, (short) 16384);
+        float[] output = new float[OUTPUT_RATE + 100];
+        int[] count = {0};
+        resampler.process(ShortBuffer.wrap(pcm), sample -> output[count[0]++] = sample);
+        int beforeFlush = count[0];
+
+        resampler.flush(sample -> output[count[0]++] = sample);
+
+        assertTrue(count[0] > beforeFlush);
+        assertTrue(count[0] + " samples", Math.abs(count[0] - OUTPUT_RATE) <= 1);
+        // The held back samples were still inside the signal, not in the padding
+        assertEquals(0.5f, output[beforeFlush], 1e-3f);
+
+        // A flushed resampler starts over like a new one
+        float[] next = resample(resampler, ShortBuffer.wrap(pcm));
+        assertArrayEquals(resample(new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 1), ShortBuffer.wrap(pcm)), next, 0f);
+    }
+
+    @Test
+    public void frequenciesAboveTheOutputNyquistAreRemoved() {
+        PolyphaseResampler resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 1);
+        float[] output = resample(resampler, ShortBuffer.wrap(sine(12_000, INPUT_RATE)));
+        assertTrue(rms(output) < 0.01f);
+
+        resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 1);
+        output = resample(resampler, ShortBuffer.wrap(sine(1_000, INPUT_RATE)));
+        assertEquals(0.5f / (float) Math.sqrt(2), rms(output), 0.01f);
+    }
+
+    @Test
+    public void byteBufferMatchesShortBufferInAnyChunking() {
+        Random random = new Random(4);
+        short[] pcm = new short[2 * 20_000];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) random.nextInt();
+        }
+        float[] expected = resample(new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 2), ShortBuffer.wrap(pcm));
+
+        // Like codec output buffers: little endian, a frame never split across buffers
+        ByteBuffer bytes = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(pcm);
+        PolyphaseResampler resampler = new PolyphaseResampler(INPUT_RATE, OUTPUT_RATE, 2);
+        float[] actual = new float[expected.length];
+        int[] count = {0};
+        int offset = 0;
+        while (offset < bytes.capacity()) {
+            int chunk = Math.min(4 * (1 + random.nextInt(2000)), bytes.capacity() - offset);
+            bytes.limit(offset + chunk).position(offset);
+            resampler.process(bytes, sample -> actual[count[0]++] = sample);
+            assertEquals(offset + chunk, bytes.position());
+            offset += chunk;
+        }
+
+        assertEquals(expected.length, count[0]);
+        assertArrayEquals(expected, actual, 0f);
+    }
+
+    private static float[] resample(PolyphaseResampler resampler, ShortBuffer pcm) {
+        float[] output = new float[pcm.remaining()];
+        int[] count = {0};
+        resampler.process(pcm, sample -> output[count[0]++] = sample);
+        return Arrays.copyOf(output, count[0]);
+    }
+
+    private static short[] sine(double frequency, int rate) {
+        short[] pcm = new short[rate];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) (16384 * Math.sin(2 * Math.PI * frequency * i / rate));
+        }
+        return pcm;
+    }
+
+    private static float rms(float[] samples) {
+        // Skips both ends, where the filter sees silence
+        double sum = 0;
+        int count = 0;
+        for (int i = 200; i < samples.length - 200; i++) {
+            sum += samples[i] * samples[i];
+            count++;
+        }
+        return (float) Math.sqrt(sum / count);
+    }
+}
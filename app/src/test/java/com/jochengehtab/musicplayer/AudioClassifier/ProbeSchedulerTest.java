@@ -0,0 +1,85 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ProbeSchedulerTest {
+    private static final long MINUTE_US = 60_000_000L;
+
+    @Test
+    public void probesStartInTheMiddleAndThenCoverBothEnds() {
+        long[] points = ProbeScheduler.probePoints(10 * MINUTE_US);
+
+        assertEquals(ProbeScheduler.MAX_PROBES, points.length);
+        assertEquals(5 * MINUTE_US, points[0]);
+        assertTrue(points[1] < points[0] && points[2] > points[0]);
+    }
+
+    @Test
+    public void shortTracksAreProbedOnceFromTheStart() {
+        assertArrayEquals(new long[]{0}, ProbeScheduler.probePoints(5_000_000L));
+    }
+
+    @Test
+    public void convergesOnceTheMeanStopsMoving() {
+        ProbeScheduler scheduler = new ProbeScheduler(AudioClassifier.DEFAULT_PROBE_CONVERGENCE);
+        float[] embedding = constant(1f);
+
+        // A single probe never decides, however stable it looks
+        scheduler.add(embedding);
+        assertFalse(scheduler.isConverged());
+
+        scheduler.add(embedding);
+        assertTrue(scheduler.isConverged());
+        assertEquals(2, scheduler.getProbeCount());
+    }
+
+    @Test
+    public void differentProbesKeepProbing() {
+        ProbeScheduler scheduler = new ProbeScheduler(AudioClassifier.DEFAULT_PROBE_CONVERGENCE);
+        float[] first = new float[AudioClassifier.EMBEDDING_SIZE];
+        float[] second = new float[AudioClassifier.EMBEDDING_SIZE];
+        first[0] = 1f;
+        second[1] = 1f;
+
+        scheduler.add(first);
+        scheduler.add(second);
+        assertFalse(scheduler.isConverged());
+    }
+
+    @Test
+    public void zeroThresholdRunsEveryProbe() {
+        ProbeScheduler scheduler = new ProbeScheduler(0f);
+        for (int i = 0; i < ProbeScheduler.MAX_PROBES; i++) {
+            scheduler.add(constant(1f));
+        }
+        assertFalse(scheduler.isConverged());
+    }
+
+    @Test
+    public void meanAveragesTheProbesAndResetStartsOver() {
+        ProbeScheduler scheduler = new ProbeScheduler(0f);
+        assertEquals(0, scheduler.mean().length);
+
+        scheduler.add(constant(1f));
+        scheduler.add(constant(3f));
+        assertArrayEquals(constant(2f), scheduler.mean(), 1e-6f);
+
+        scheduler.reset(0f);
+        assertEquals(0, scheduler.getProbeCount());
+        scheduler.add(constant(5f));
+        assertArrayEquals(constant(5f), scheduler.mean(), 1e-6f);
+    }
+
+    private static float[] constant(float value) {
+        float[] embedding = new float[AudioClassifier.EMBEDDING_SIZE];
+        Arrays.fill(embedding, value);
+        return embedding;
+    }
+}
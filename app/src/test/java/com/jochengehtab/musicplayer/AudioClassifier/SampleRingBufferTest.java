@@ -0,0 +1,83 @@
+package com.jochengehtab.musicplayer.AudioClassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+public class SampleRingBufferTest {
+    @Test
+    public void copiesTheOldestSamplesAcrossTheWrap() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            buffer.write(i);
+        }
+        assertTrue(buffer.isFull());
+
+        // Moves the head to the end of the array, the next writes wrap around
+        buffer.discard(3);
+        buffer.write(4);
+        buffer.write(5);
+        buffer.write(6);
+
+        float[] window = new float[4];
+        buffer.copyTo(window, 4);
+        assertArrayEquals(new float[]{3, 4, 5, 6}, window, 0f);
+        assertEquals(3, buffer.getStartSample());
+
+        FloatBuffer direct = FloatBuffer.allocate(4);
+        buffer.copyTo(direct, 3);
+        assertEquals(3, direct.position());
+        assertArrayEquals(new float[]{3, 4, 5, 0}, direct.array(), 0f);
+    }
+
+    @Test
+    public void copyingDoesNotConsume() {
+        SampleRingBuffer buffer = new SampleRingBuffer(2);
+        buffer.write(1);
+        buffer.copyTo(new float[1], 1);
+
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void discardIsClampedToTheBufferedSamples() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        buffer.write(1);
+        buffer.write(2);
+        buffer.discard(10);
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, buffer.getStartSample());
+        assertFalse(buffer.isFull());
+    }
+
+    @Test
+    public void clearStartsTheStreamOver() {
+        SampleRingBuffer buffer = new SampleRingBuffer(2);
+        buffer.write(1);
+        buffer.discard(1);
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getStartSample());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writingIntoAFullBufferFails() {
+        SampleRingBuffer buffer = new SampleRingBuffer(1);
+        buffer.write(1);
+        buffer.write(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void copyingMoreThanBufferedFails() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        buffer.write(1);
+        buffer.copyTo(new float[2], 2);
+    }
+}
@@ -0,0 +1,62 @@
+package com.jochengehtab.musicplayer.Data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The float16 format relies on {@code android.util.Half}, which only exists on a device.
+ */
+public class EmbeddingCodecTest {
+    private static final float[] VECTOR = {0f, 1.5f, -2.25f, Float.MIN_VALUE, 1e30f};
+
+    @Test
+    public void float32RoundTripIsExact() {
+        byte[] data = EmbeddingCodec.encode(VECTOR, EmbeddingCodec.Format.FLOAT32);
+
+        assertEquals(EmbeddingCodec.HEADER_SIZE + 4 * VECTOR.length, data.length);
+        assertEquals(EmbeddingCodec.Format.FLOAT32.id, data[0]);
+        assertArrayEquals(VECTOR, EmbeddingCodec.decode(data), 0f);
+    }
+
+    @Test
+    public void valuesAreLittleEndian() {
+        byte[] data = EmbeddingCodec.encode(new float[]{1f}, EmbeddingCodec.Format.FLOAT32);
+
+        // 1.0f is 0x3F800000
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3F},
+                new byte[]{data[4], data[5], data[6], data[7]});
+    }
+
+    @Test
+    public void floatBufferViewReadsTheStoredValues() {
+        FloatBuffer view = EmbeddingCodec.asFloatBuffer(EmbeddingCodec.encode(VECTOR, EmbeddingCodec.Format.FLOAT32));
+
+        assertEquals(VECTOR.length, view.remaining());
+        assertTrue(view.isReadOnly());
+        for (float value : VECTOR) {
+            assertEquals(value, view.get(), 0f);
+        }
+    }
+
+    @Test
+    public void invalidDataHasNoEmbedding() {
+        assertNull(EmbeddingCodec.decode(null));
+        assertNull(EmbeddingCodec.decode(new byte[EmbeddingCodec.HEADER_SIZE]));
+        // Unknown format id
+        assertNull(EmbeddingCodec.decode(new byte[]{9, 0, 0, 0, 0, 0, 0, 0}));
+        // Not a whole number of float32 values
+        assertNull(EmbeddingCodec.decode(new byte[]{1, 0, 0, 0, 0, 0}));
+    }
+
+    @Test
+    public void float16HasNoFloatBufferView() {
+        byte[] data = {EmbeddingCodec.Format.FLOAT16.id, 0, 0, 0, 0, 0};
+        assertNull(EmbeddingCodec.asFloatBuffer(data));
+    }
+}
@@ -0,0 +1,20 @@
+package com.jochengehtab.musicplayer.MainActivity;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AnalysisConditionsTest {
+    @Test
+    public void chargingAlwaysRuns() {
+        assertTrue(AnalysisConditions.canRun(true, 5, true));
+    }
+
+    @Test
+    public void batteryRunsOnlyWhenFullEnoughAndNotSaving() {
+        assertTrue(AnalysisConditions.canRun(false, 30, false));
+        assertFalse(AnalysisConditions.canRun(false, 29, false));
+        assertFalse(AnalysisConditions.canRun(false, 100, true));
+    }
+}
@@ -0,0 +1,72 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class EmbeddingIndexTest {
+    private static final float INT8_TOLERANCE = 0.01f;
+
+    @Test
+    public void rowsAreNormalizedWhenWritten() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        index.put(1, new float[]{3f, 4f, 0f, 0f});
+
+        assertArrayEquals(new float[]{0.6f, 0.8f, 0f, 0f}, index.getVector(1), INT8_TOLERANCE);
+    }
+
+    @Test
+    public void quantizedScoresAreCosineSimilarities() {
+        assertScoresAreCosineSimilarities(new EmbeddingIndex());
+    }
+
+    @Test
+    public void floatScoresAreCosineSimilarities() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        index.setQuantized(false);
+        assertScoresAreCosineSimilarities(index);
+    }
+
+    @Test
+    public void fullPrecisionVectorIsNormalizedLikeTheRows() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        index.put(1, new float[]{3f, 4f});
+        index.setFullPrecisionLoader(trackId -> new float[]{30f, 40f});
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, index.getFullPrecisionVector(1), 1e-6f);
+    }
+
+    @Test
+    public void removeKeepsTheOtherRows() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        index.put(1, new float[]{1f, 0f});
+        index.put(2, new float[]{0f, 2f});
+        index.put(3, new float[]{-5f, 0f});
+
+        index.remove(1);
+
+        assertEquals(2, index.size());
+        assertNull(index.getVector(1));
+        assertArrayEquals(new float[]{0f, 1f}, index.getVector(2), INT8_TOLERANCE);
+        assertArrayEquals(new float[]{-1f, 0f}, index.getVector(3), INT8_TOLERANCE);
+    }
+
+    private static void assertScoresAreCosineSimilarities(EmbeddingIndex index) {
+        // The raw embeddings are far longer than 1, their dot products are meaningless as similarities
+        index.put(1, new float[]{10f, 20f, 30f, 40f});
+        index.put(2, new float[]{30f, 60f, 90f, 120f});
+        index.put(3, new float[]{40f, -30f, 20f, -10f});
+
+        Map<Long, Float> scores = new HashMap<>();
+        index.score(index.getVector(1), scores::put);
+
+        assertEquals(1f, scores.get(1L), INT8_TOLERANCE);
+        assertEquals(1f, scores.get(2L), INT8_TOLERANCE);
+        assertEquals(0f, scores.get(3L), INT8_TOLERANCE);
+    }
+}
@@ -0,0 +1,110 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class HnswIndexTest {
+    private static final int TRACKS = 3000;
+    private static final int CLUSTERS = 40;
+    private static final int DIMENSION = 32;
+    private static final int K = 10;
+    private static final int QUERIES = 100;
+    private static final float MIN_RECALL = 0.9f;
+
+    @Test
+    public void recallMatchesTheExactScan() {
+        EmbeddingIndex exact = new EmbeddingIndex();
+        HnswIndex graph = new HnswIndex(exact);
+        fill(exact, graph);
+
+        assertEquals(TRACKS, graph.size());
+        float recall = recall(exact, graph, new LongHashSet(0));
+        assertTrue("Recall " + recall, recall >= MIN_RECALL);
+    }
+
+    @Test
+    public void removedTracksAreNotFoundAndRecallHolds() {
+        EmbeddingIndex exact = new EmbeddingIndex();
+        HnswIndex graph = new HnswIndex(exact);
+        fill(exact, graph);
+
+        // Stays below the share that rebuilds the graph, so the links of every removed node are repaired
+        LongHashSet removed = new LongHashSet(TRACKS / 5);
+        for (long trackId = 0; trackId < TRACKS; trackId += 5) {
+            exact.remove(trackId);
+            graph.remove(trackId);
+            removed.add(trackId);
+        }
+
+        assertEquals(TRACKS - removed.size(), graph.size());
+        float recall = recall(exact, graph, removed);
+        assertTrue("Recall " + recall, recall >= MIN_RECALL);
+    }
+
+    @Test
+    public void tracksWithoutAnEmbeddingAreNotLinked() {
+        EmbeddingIndex exact = new EmbeddingIndex();
+        HnswIndex graph = new HnswIndex(exact);
+
+        graph.add(1);
+
+        assertEquals(0, graph.size());
+    }
+
+    /**
+     * Random tracks around a few centers, like the styles of a real library. Raw embeddings are not normalized,
+     * so every track gets a random length.
+     */
+    private static void fill(EmbeddingIndex exact, HnswIndex graph) {
+        Random random = new Random(1);
+        float[][] centers = new float[CLUSTERS][DIMENSION];
+        for (float[] center : centers) {
+            for (int d = 0; d < DIMENSION; d++) {
+                center[d] = (float) random.nextGaussian();
+            }
+        }
+
+        for (long trackId = 0; trackId < TRACKS; trackId++) {
+            float[] center = centers[random.nextInt(CLUSTERS)];
+            float length = 1f + 20f * random.nextFloat();
+            float[] vector = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] = length * (center[d] + 0.5f * (float) random.nextGaussian());
+            }
+            exact.put(trackId, vector);
+            graph.add(trackId);
+        }
+    }
+
+    private static float recall(EmbeddingIndex exact, HnswIndex graph, LongHashSet removed) {
+        Random random = new Random(2);
+        long[] ids = exact.getIds();
+        TopKSelector truth = new TopKSelector(K);
+        int hits = 0;
+
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = exact.getVector(ids[random.nextInt(ids.length)]);
+            truth.clear();
+            exact.score(query, truth::offer);
+
+            LongHashSet found = new LongHashSet(K);
+            int[] taken = {0};
+            graph.search(query, K, HnswIndex.DEFAULT_EF_SEARCH, (trackId, score) -> {
+                assertFalse("Found removed track " + trackId, removed.contains(trackId));
+                if (taken[0]++ < K) found.add(trackId);
+            });
+
+            for (int i = 0; i < truth.size(); i++) {
+                if (found.contains(truth.getId(i))) hits++;
+            }
+        }
+        return (float) hits / (QUERIES * K);
+    }
+}
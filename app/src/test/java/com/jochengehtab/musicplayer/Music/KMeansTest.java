@@ -0,0 +1,105 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class KMeansTest {
+    private static final int DIMENSION = 8;
+
+    // Pairwise 60 degrees apart, so raw rows of length 10 or more have a dot product far above 1 with each other
+    private static final float[][] DIRECTIONS = {
+            {1, 1, 0, 0, 0, 0, 0, 0},
+            {0, 1, 1, 0, 0, 0, 0, 0},
+            {1, 0, 1, 0, 0, 0, 0, 0},
+    };
+
+    @Test
+    public void seedingFindsSmallClustersOfLongRows() {
+        int[] sizes = {1000, 20, 20};
+        EmbeddingIndex.Snapshot snapshot = snapshot(sizes, new int[sizes[0] + sizes[1] + sizes[2]], new Random(1));
+
+        int covered = 0;
+        for (long seed = 0; seed < 10; seed++) {
+            KMeans kMeans = new KMeans(snapshot, DIRECTIONS.length);
+            // Without iterations the centroids are exactly the seeds
+            kMeans.run(0, seed);
+
+            boolean[] found = new boolean[DIRECTIONS.length];
+            for (int cluster = 0; cluster < DIRECTIONS.length; cluster++) {
+                found[nearestDirection(kMeans.getCentroid(cluster))] = true;
+            }
+            if (found[0] && found[1] && found[2]) covered++;
+        }
+        // Seeding uniformly at random would almost never pick a row of both small clusters
+        assertTrue(covered + " of 10 seedings covered every cluster", covered >= 8);
+    }
+
+    @Test
+    public void assignmentRecoversTheClusters() {
+        int[] sizes = {300, 200, 100};
+        int[] truth = new int[sizes[0] + sizes[1] + sizes[2]];
+        EmbeddingIndex.Snapshot snapshot = snapshot(sizes, truth, new Random(2));
+
+        KMeans kMeans = new KMeans(snapshot, DIRECTIONS.length);
+        kMeans.run(20, 3);
+        int[] assignment = kMeans.getAssignment();
+
+        int[] clusterOfDirection = {-1, -1, -1};
+        for (int row = 0; row < truth.length; row++) {
+            if (clusterOfDirection[truth[row]] < 0) clusterOfDirection[truth[row]] = assignment[row];
+            assertEquals("Row " + row, clusterOfDirection[truth[row]], assignment[row]);
+        }
+        assertTrue(clusterOfDirection[0] != clusterOfDirection[1]);
+        assertTrue(clusterOfDirection[0] != clusterOfDirection[2]);
+        assertTrue(clusterOfDirection[1] != clusterOfDirection[2]);
+
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            assertEquals(direction, nearestDirection(kMeans.getCentroid(clusterOfDirection[direction])));
+        }
+    }
+
+    /**
+     * Quantizes raw rows of random length around the directions, like an index that never normalized them.
+     */
+    private static EmbeddingIndex.Snapshot snapshot(int[] sizes, int[] truth, Random random) {
+        int rows = truth.length;
+        long[] ids = new long[rows];
+        byte[] codes = new byte[rows * DIMENSION];
+        float[] scales = new float[rows];
+        float[] vector = new float[DIMENSION];
+
+        int row = 0;
+        for (int direction = 0; direction < sizes.length; direction++) {
+            for (int i = 0; i < sizes[direction]; i++, row++) {
+                float length = 10f + 90f * random.nextFloat();
+                for (int d = 0; d < DIMENSION; d++) {
+                    vector[d] = length * (DIRECTIONS[direction][d] + 0.005f * (float) random.nextGaussian());
+                }
+                ids[row] = row;
+                truth[row] = direction;
+                scales[row] = ScalarQuantizer.quantize(vector, 0, DIMENSION, codes, row * DIMENSION);
+            }
+        }
+        return new EmbeddingIndex.Snapshot(ids, codes, scales, DIMENSION);
+    }
+
+    private static int nearestDirection(float[] centroid) {
+        int best = -1;
+        float bestScore = -Float.MAX_VALUE;
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            float score = 0f;
+            for (int d = 0; d < DIMENSION; d++) {
+                score += centroid[d] * DIRECTIONS[direction][d];
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = direction;
+            }
+        }
+        return best;
+    }
+}
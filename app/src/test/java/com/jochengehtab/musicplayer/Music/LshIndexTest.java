@@ -0,0 +1,108 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.jochengehtab.musicplayer.Utility.LongHashSet;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LshIndexTest {
+    private static final int DIMENSION = 32;
+    private static final int FILLER_TRACKS = 500;
+    private static final long ORIGINAL = 1000;
+    private static final long QUIET_COPY = 1001;
+    private static final long OTHER_SONG = 1002;
+    private static final long LOUD_COPY = 1003;
+
+    @Test
+    public void duplicatesDependOnTheDirectionOnly() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        LshIndex lsh = new LshIndex();
+        Random random = new Random(1);
+        float[] common = randomVector(random, 1f);
+        fillLibrary(index, common, random);
+
+        // The same song at very different lengths, and a different song with a far larger raw dot product
+        float[] song = randomVector(random, 1f);
+        float[] otherSong = Arrays.copyOf(song, DIMENSION);
+        for (int d = 0; d < DIMENSION / 2; d++) {
+            otherSong[d] = -otherSong[d];
+        }
+        index.put(ORIGINAL, scaled(song, 40f));
+        index.put(QUIET_COPY, scaled(song, 0.5f));
+        index.put(OTHER_SONG, scaled(otherSong, 400f));
+        lsh.ensureBuilt(index);
+
+        List<long[]> clusters = lsh.findDuplicateClusters(index, LshIndex.DEFAULT_THRESHOLD);
+        assertEquals(1, clusters.size());
+        long[] cluster = clusters.get(0);
+        Arrays.sort(cluster);
+        assertArrayEquals(new long[]{ORIGINAL, QUIET_COPY}, cluster);
+
+        LongHashSet history = new LongHashSet(1);
+        history.add(ORIGINAL);
+        assertTrue(lsh.isDuplicateOfAny(QUIET_COPY, history, LshIndex.DEFAULT_THRESHOLD, index));
+        assertFalse(lsh.isDuplicateOfAny(OTHER_SONG, history, LshIndex.DEFAULT_THRESHOLD, index));
+    }
+
+    @Test
+    public void rawVectorsAddedLaterShareTheBucketsOfTheirDuplicates() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        LshIndex lsh = new LshIndex();
+        Random random = new Random(2);
+        // A strong common direction, so the library mean is far from the origin
+        float[] common = randomVector(random, 3f);
+        fillLibrary(index, common, random);
+
+        float[] song = randomVector(random, 1f);
+        index.put(ORIGINAL, song);
+        lsh.ensureBuilt(index);
+
+        // Like the analysis, which hands over the raw embedding
+        float[] loudCopy = scaled(song, 1000f);
+        index.put(LOUD_COPY, loudCopy);
+        lsh.add(LOUD_COPY, loudCopy);
+
+        LongHashSet history = new LongHashSet(1);
+        history.add(ORIGINAL);
+        assertTrue(lsh.isDuplicateOfAny(LOUD_COPY, history, LshIndex.DEFAULT_THRESHOLD, index));
+    }
+
+    /**
+     * Unrelated tracks of random length around a direction all embeddings share.
+     */
+    private static void fillLibrary(EmbeddingIndex index, float[] common, Random random) {
+        for (long trackId = 0; trackId < FILLER_TRACKS; trackId++) {
+            float[] vector = randomVector(random, 1f);
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] += common[d];
+            }
+            index.put(trackId, scaled(vector, 1f + 50f * random.nextFloat()));
+        }
+    }
+
+    private static float[] randomVector(Random random, float length) {
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = (float) random.nextGaussian();
+            norm += vector[d] * vector[d];
+        }
+        return scaled(vector, (float) (length / Math.sqrt(norm)));
+    }
+
+    private static float[] scaled(float[] vector, float factor) {
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * factor;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class MixPlannerTest {
+    private static final int DIMENSION = 16;
+
+    @Test
+    public void playlistTourIsBoundedByTheMixLength() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        Random random = new Random(3);
+        long[] playlist = new long[500];
+        for (int i = 0; i < playlist.length; i++) {
+            playlist[i] = 100 + i;
+            float[] vector = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            index.put(playlist[i], vector);
+        }
+
+        long[] planned = new MixPlanner().planFromTracks(playlist, 20, index);
+
+        assertEquals(20, planned.length);
+        assertEquals(playlist[0], planned[0]);
+        Set<Long> seen = new HashSet<>();
+        for (long trackId : planned) {
+            assertTrue(trackId >= 100 && trackId < 100 + playlist.length);
+            assertTrue("Planned twice: " + trackId, seen.add(trackId));
+        }
+    }
+
+    @Test
+    public void tracksWithoutEmbeddingAreLeftOut() {
+        EmbeddingIndex index = new EmbeddingIndex();
+        index.put(2, new float[]{1f, 0f});
+        index.put(4, new float[]{0f, 1f});
+
+        long[] planned = new MixPlanner().planFromTracks(new long[]{1, 2, 3, 4}, 20, index);
+
+        assertEquals(2, planned.length);
+        assertEquals(2, planned[0]);
+        assertEquals(4, planned[1]);
+    }
+}
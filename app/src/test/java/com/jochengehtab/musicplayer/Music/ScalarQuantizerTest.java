@@ -0,0 +1,82 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ScalarQuantizerTest {
+    private static final int DIMENSION = 1024;
+
+    @Test
+    public void roundTripErrorIsAtMostHalfAStep() {
+        float[] vector = randomUnitVector(new Random(1));
+        byte[] codes = new byte[DIMENSION];
+        float scale = ScalarQuantizer.quantize(vector, 0, DIMENSION, codes, 0);
+
+        float[] restored = new float[DIMENSION];
+        ScalarQuantizer.dequantize(codes, 0, scale, restored, DIMENSION);
+        for (int i = 0; i < DIMENSION; i++) {
+            assertEquals(vector[i], restored[i], scale / 2 + 1e-6f);
+        }
+    }
+
+    @Test
+    public void largestValueUsesTheFullRange() {
+        byte[] codes = new byte[3];
+        float scale = ScalarQuantizer.quantize(new float[]{0.5f, -2f, 1f}, 0, 3, codes, 0);
+
+        assertEquals(2f / 127f, scale, 1e-7f);
+        assertEquals(-127, codes[1]);
+        assertEquals(64, codes[2]);
+    }
+
+    @Test
+    public void zeroVectorHasZeroScale() {
+        byte[] codes = {1, 2, 3};
+        assertEquals(0f, ScalarQuantizer.quantize(new float[3], 0, 3, codes, 0), 0f);
+        assertEquals(0, ScalarQuantizer.dot(codes, 0, codes, 0, 3));
+    }
+
+    @Test
+    public void integerDotApproximatesTheFloatDot() {
+        Random random = new Random(2);
+        byte[] codes = new byte[2 * DIMENSION];
+        for (int trial = 0; trial < 50; trial++) {
+            float[] a = randomUnitVector(random);
+            float[] b = randomUnitVector(random);
+            float scaleA = ScalarQuantizer.quantize(a, 0, DIMENSION, codes, 0);
+            float scaleB = ScalarQuantizer.quantize(b, 0, DIMENSION, codes, DIMENSION);
+
+            float exact = 0f;
+            for (int i = 0; i < DIMENSION; i++) {
+                exact += a[i] * b[i];
+            }
+            float approximate = ScalarQuantizer.dot(codes, 0, codes, DIMENSION, DIMENSION) * scaleA * scaleB;
+            assertTrue(exact + " vs " + approximate, Math.abs(exact - approximate) < 0.01f);
+        }
+    }
+
+    @Test
+    public void worstCaseDotDoesNotOverflow() {
+        byte[] codes = new byte[DIMENSION];
+        Arrays.fill(codes, (byte) -127);
+        assertEquals(DIMENSION * 127 * 127, ScalarQuantizer.dot(codes, 0, codes, 0, DIMENSION));
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+}
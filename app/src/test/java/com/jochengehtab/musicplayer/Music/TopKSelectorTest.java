@@ -0,0 +1,61 @@
+package com.jochengehtab.musicplayer.Music;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TopKSelectorTest {
+    @Test
+    public void keepsTheHighestScoresOfTheStream() {
+        Random random = new Random(5);
+        float[] scores = new float[10_000];
+        TopKSelector selector = new TopKSelector(20);
+        for (int id = 0; id < scores.length; id++) {
+            scores[id] = random.nextFloat();
+            selector.offer(id, scores[id]);
+        }
+
+        float[] expected = Arrays.copyOf(sortedDescending(scores), 20);
+        float[] actual = new float[selector.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = selector.getScore(i);
+            assertEquals(scores[(int) selector.getId(i)], actual[i], 0f);
+        }
+        assertArrayEquals(expected, sortedDescending(actual), 0f);
+    }
+
+    @Test
+    public void holdsEverythingBelowItsCapacity() {
+        TopKSelector selector = new TopKSelector(5);
+        selector.offer(1, -1f);
+        selector.offer(2, -3f);
+
+        assertEquals(2, selector.size());
+    }
+
+    @Test
+    public void clearStartsOver() {
+        TopKSelector selector = new TopKSelector(1);
+        selector.offer(1, 10f);
+        selector.clear();
+        selector.offer(2, 1f);
+
+        assertEquals(1, selector.size());
+        assertEquals(2, selector.getId(0));
+    }
+
+    private static float[] sortedDescending(float[] values) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length / 2; i++) {
+            float swap = sorted[i];
+            sorted[i] = sorted[sorted.length - 1 - i];
+            sorted[sorted.length - 1 - i] = swap;
+        }
+        return sorted;
+    }
+}
@@ -1,8 +1,8 @@
 package com.jochengehtab.musicplayer;
 
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
@@ -11,15 +11,18 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import android.net.Uri;
-import android.util.Log;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
 
-import com.jochengehtab.musicplayer.AudioClassifier.AudioClassifier;
+import androidx.core.content.ContextCompat;
+
+import com.jochengehtab.musicplayer.Data.AnalysisJobDao;
 import com.jochengehtab.musicplayer.Data.AppDatabase;
-import com.jochengehtab.musicplayer.Data.Track;
-import com.jochengehtab.musicplayer.Data.TrackDao;
-import com.jochengehtab.musicplayer.MainActivity.MusicAnalysisModel;
 import com.jochengehtab.musicplayer.MainActivity.MusicAnalysisCallback;
+import com.jochengehtab.musicplayer.MainActivity.MusicAnalysisModel;
 
 import org.junit.After;
 import org.junit.Before;
@@ -28,10 +31,79 @@ import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.ExecutorService;
 
 public class MusicAnalysisTest {
-    
-}
\ No newline at end of file
+    @Mock
+    private Context context;
+    @Mock
+    private AppDatabase database;
+    @Mock
+    private AnalysisJobDao jobs;
+    @Mock
+    private MusicAnalysisCallback callback;
+    @Mock
+    private BatteryManager batteryManager;
+    @Mock
+    private PowerManager powerManager;
+
+    private AutoCloseable mocks;
+    private MockedStatic<ContextCompat> contextCompat;
+    private MusicAnalysisModel model;
+
+    @Before
+    public void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        contextCompat = mockStatic(ContextCompat.class);
+
+        when(context.getApplicationContext()).thenReturn(context);
+        when(context.getSystemService(BatteryManager.class)).thenReturn(batteryManager);
+        when(context.getSystemService(PowerManager.class)).thenReturn(powerManager);
+        when(database.analysisJobDao()).thenReturn(jobs);
+
+        // Runs the work of the model on the calling thread
+        ExecutorService executor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+
+        model = new MusicAnalysisModel(database, executor, context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        contextCompat.close();
+        mocks.close();
+    }
+
+    @Test
+    public void lowBatteryWaitsForTheCharger() {
+        when(batteryManager.isCharging()).thenReturn(false);
+        when(batteryManager.getIntProperty(anyInt())).thenReturn(10);
+
+        model.checkAndStartAnalysis(callback);
+        // A second request while waiting does not register a second receiver
+        model.checkAndStartAnalysis(callback);
+
+        verify(jobs, times(2)).enqueueUnanalyzedTracks();
+        verify(jobs, never()).getRunnableTracks(anyLong());
+        verify(callback, never()).onStarted();
+        contextCompat.verify(() -> ContextCompat.registerReceiver(any(Context.class), any(BroadcastReceiver.class),
+                any(IntentFilter.class), anyInt()), times(1));
+    }
+
+    @Test
+    public void nothingStartsWithoutRunnableJobs() {
+        when(batteryManager.isCharging()).thenReturn(true);
+        when(jobs.getRunnableTracks(anyLong())).thenReturn(Collections.emptyList());
+
+        model.checkAndStartAnalysis(callback);
+
+        verify(jobs).getRunnableTracks(anyLong());
+        verify(callback, never()).onStarted();
+        // Looks for a retry that is due later
+        verify(jobs).getNextRetryTime(anyLong());
+    }
+}
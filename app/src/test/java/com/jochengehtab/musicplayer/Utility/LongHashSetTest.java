@@ -0,0 +1,54 @@
+package com.jochengehtab.musicplayer.Utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class LongHashSetTest {
+    @Test
+    public void behavesLikeAHashSetWhileGrowing() {
+        LongHashSet set = new LongHashSet(1);
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(6);
+
+        for (int i = 0; i < 10_000; i++) {
+            // Sequential ids like the database hands out, plus random ones
+            long key = (i % 2 == 0) ? i : random.nextLong();
+            assertEquals(expected.add(key), set.add(key));
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (long key : expected) {
+            assertTrue(set.contains(key));
+        }
+        assertFalse(set.contains(-1));
+    }
+
+    @Test
+    public void storesTheEmptyMarkerAsAKey() {
+        LongHashSet set = new LongHashSet(4);
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(Long.MIN_VALUE));
+
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        LongHashSet set = new LongHashSet(4);
+        set.add(1);
+        set.add(Long.MIN_VALUE);
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1));
+        assertFalse(set.contains(Long.MIN_VALUE));
+    }
+}
@@ -0,0 +1,50 @@
+package com.jochengehtab.musicplayer.Utility;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntHashMapTest {
+    @Test
+    public void behavesLikeAHashMap() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+
+        // Few distinct keys, so removals keep closing gaps in long probe sequences
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(500) * 1024L;
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else if (operation == 1) {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? LongIntHashMap.MISSING : removed, map.remove(key));
+            } else {
+                Integer value = expected.get(key);
+                assertEquals(value == null ? LongIntHashMap.MISSING : value, map.get(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void storesTheEmptyMarkerAsAKey() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        map.put(Long.MIN_VALUE, 7);
+
+        assertEquals(1, map.size());
+        assertEquals(7, map.get(Long.MIN_VALUE));
+        assertEquals(7, map.remove(Long.MIN_VALUE));
+        assertEquals(LongIntHashMap.MISSING, map.get(Long.MIN_VALUE));
+    }
+}